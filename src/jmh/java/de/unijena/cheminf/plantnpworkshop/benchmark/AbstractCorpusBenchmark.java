@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop.benchmark;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Common setup of the per-molecule benchmarks: every invocation processes the next molecule of the corpus, cycling
+ * through it, so the reported throughput is molecules per second averaged over the corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class AbstractCorpusBenchmark {
+    /**
+     * Number of records, 10 is the unmodified COCONUTset-10.sdf, larger values add atom-permuted copies.
+     */
+    @Param({"10", "1000"})
+    public int corpusSize;
+
+    protected BenchmarkCorpus corpus;
+
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void loadCorpus() throws Exception {
+        this.corpus = BenchmarkCorpus.load(this.corpusSize);
+        this.cursor = 0;
+        this.setUp();
+    }
+
+    /**
+     * Called after the corpus is loaded, for benchmark-specific preparation.
+     *
+     * @throws Exception if the preparation fails
+     */
+    protected void setUp() throws Exception {
+        //nothing to do by default
+    }
+
+    /**
+     * @return position of the molecule to process in this invocation
+     */
+    protected int next() {
+        int tmpIndex = this.cursor;
+        this.cursor = tmpIndex + 1 == this.corpus.size() ? 0 : tmpIndex + 1;
+        return tmpIndex;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop.benchmark;
+
+import de.unijena.cheminf.plantnpworkshop.CalculatorRegistry;
+import de.unijena.cheminf.plantnpworkshop.MoleculeForm;
+import de.unijena.cheminf.plantnpworkshop.PreparedMolecule;
+import de.unijena.cheminf.plantnpworkshop.SDFRecordPipeline;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.graph.AtomContainerAtomPermutor;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.io.SDFWriter;
+import org.openscience.cdk.io.iterator.IteratingSDFReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark input: the records of COCONUTset-10.sdf, optionally scaled up to a synthetic corpus, as raw SDF text and
+ * as parsed molecules in all {@link MoleculeForm}s.
+ * <p>
+ * Records beyond the ten of the file are copies of them with randomly permuted atom order (fixed seed) and a
+ * COCONUT_ID suffixed with their position, so parsing, canonicalisation and perception cannot take shortcuts on
+ * identical input while the chemistry, and therefore the cost per molecule, stays representative.
+ */
+public final class BenchmarkCorpus {
+    /**
+     * Resource name of the COCONUT subset, from src/main/resources.
+     */
+    public static final String COCONUT_SET_RESOURCE = "/COCONUTset-10.sdf";
+
+    private final String[] records;
+
+    private final String text;
+
+    private final IAtomContainer[] asRead;
+
+    private final IAtomContainer[] hydrogenSuppressed;
+
+    private final IAtomContainer[] explicitHydrogens;
+
+    private BenchmarkCorpus(List<String> aRecords, IChemObjectBuilder aBuilder) throws IOException, CDKException {
+        this.records = aRecords.toArray(new String[0]);
+        this.text = String.join("", aRecords);
+        this.asRead = new IAtomContainer[this.records.length];
+        this.hydrogenSuppressed = new IAtomContainer[this.records.length];
+        this.explicitHydrogens = new IAtomContainer[this.records.length];
+        CalculatorRegistry tmpRegistry = CalculatorRegistry.forCurrentThread(aBuilder);
+        for (int i = 0; i < this.records.length; i++) {
+            //all forms are declared, so every form is derived from its own copy
+            PreparedMolecule tmpPrepared = new PreparedMolecule(BenchmarkCorpus.parse(this.records[i], aBuilder),
+                    EnumSet.allOf(MoleculeForm.class), tmpRegistry);
+            this.asRead[i] = tmpPrepared.get(MoleculeForm.AS_READ);
+            this.hydrogenSuppressed[i] = tmpPrepared.get(MoleculeForm.HYDROGEN_SUPPRESSED);
+            this.explicitHydrogens[i] = tmpPrepared.get(MoleculeForm.EXPLICIT_HYDROGENS);
+        }
+    }
+
+    /**
+     * Loads the COCONUT subset and scales it to the given number of records.
+     *
+     * @param aSize number of records, 10 for the unmodified COCONUTset-10.sdf
+     * @return the corpus
+     * @throws IOException if the resource cannot be read
+     * @throws CDKException if a record cannot be parsed, permuted or preprocessed
+     */
+    public static BenchmarkCorpus load(int aSize) throws IOException, CDKException {
+        IChemObjectBuilder tmpBuilder = DefaultChemObjectBuilder.getInstance();
+        List<String> tmpOriginals = BenchmarkCorpus.readRecords();
+        List<String> tmpRecords = new ArrayList<>(aSize);
+        for (int i = 0; i < aSize && i < tmpOriginals.size(); i++) {
+            tmpRecords.add(tmpOriginals.get(i));
+        }
+        for (int i = tmpOriginals.size(); i < aSize; i++) {
+            tmpRecords.add(BenchmarkCorpus.permute(tmpOriginals.get(i % tmpOriginals.size()), i, tmpBuilder));
+        }
+        return new BenchmarkCorpus(tmpRecords, tmpBuilder);
+    }
+
+    public int size() {
+        return this.records.length;
+    }
+
+    /**
+     * @return raw SDF text of the record at the given position, including the "$$$$" line
+     */
+    public String getRecord(int anIndex) {
+        return this.records[anIndex];
+    }
+
+    /**
+     * @return raw SDF text of the whole corpus
+     */
+    public String getText() {
+        return this.text;
+    }
+
+    /**
+     * @return molecule as read, must not be modified by the benchmarks
+     */
+    public IAtomContainer getAsRead(int anIndex) {
+        return this.asRead[anIndex];
+    }
+
+    /**
+     * @return molecule with perceived atom types and aromaticity
+     */
+    public IAtomContainer getHydrogenSuppressed(int anIndex) {
+        return this.hydrogenSuppressed[anIndex];
+    }
+
+    /**
+     * @return molecule with explicit hydrogens, perceived atom types and aromaticity
+     */
+    public IAtomContainer getExplicitHydrogens(int anIndex) {
+        return this.explicitHydrogens[anIndex];
+    }
+
+    /**
+     * Parses a single raw SDF record like {@link SDFRecordPipeline} does.
+     *
+     * @param aRecord raw SDF text of one record
+     * @param aBuilder chem object builder
+     * @return the molecule
+     * @throws IOException if the record cannot be parsed
+     */
+    public static IAtomContainer parse(String aRecord, IChemObjectBuilder aBuilder) throws IOException {
+        try (IteratingSDFReader tmpReader = new IteratingSDFReader(new StringReader(aRecord), aBuilder, true)) {
+            if (!tmpReader.hasNext()) {
+                throw new IOException("Erroneous benchmark record.");
+            }
+            return tmpReader.next();
+        }
+    }
+
+    private static List<String> readRecords() throws IOException {
+        InputStream tmpInput = BenchmarkCorpus.class.getResourceAsStream(BenchmarkCorpus.COCONUT_SET_RESOURCE);
+        if (tmpInput == null) {
+            throw new IOException("Resource " + BenchmarkCorpus.COCONUT_SET_RESOURCE + " not found.");
+        }
+        List<String> tmpRecords = new ArrayList<>();
+        try (BufferedReader tmpReader = new BufferedReader(new InputStreamReader(tmpInput, StandardCharsets.UTF_8))) {
+            StringBuilder tmpRecord = new StringBuilder();
+            String tmpLine;
+            while ((tmpLine = tmpReader.readLine()) != null) {
+                tmpRecord.append(tmpLine).append('\n');
+                if (tmpLine.startsWith(SDFRecordPipeline.RECORD_DELIMITER)) {
+                    tmpRecords.add(tmpRecord.toString());
+                    tmpRecord.setLength(0);
+                }
+            }
+        }
+        return tmpRecords;
+    }
+
+    /**
+     * Writes a copy of the given record with randomly permuted atom order.
+     */
+    private static String permute(String aRecord, int anIndex, IChemObjectBuilder aBuilder) throws IOException, CDKException {
+        IAtomContainer tmpMolecule = BenchmarkCorpus.parse(aRecord, aBuilder);
+        int[] tmpPermutation = new int[tmpMolecule.getAtomCount()];
+        for (int i = 0; i < tmpPermutation.length; i++) {
+            tmpPermutation[i] = i;
+        }
+        Random tmpRandom = new Random(anIndex);
+        for (int i = tmpPermutation.length - 1; i > 0; i--) {
+            int j = tmpRandom.nextInt(i + 1);
+            int tmpSwap = tmpPermutation[i];
+            tmpPermutation[i] = tmpPermutation[j];
+            tmpPermutation[j] = tmpSwap;
+        }
+        IAtomContainer tmpPermuted = new AtomContainerAtomPermutor(tmpMolecule).containerFromPermutation(tmpPermutation);
+        tmpPermuted.setProperties(tmpMolecule.getProperties());
+        tmpPermuted.setProperty("COCONUT_ID", tmpMolecule.getProperty("COCONUT_ID") + "-" + anIndex);
+        StringWriter tmpText = new StringWriter();
+        try (SDFWriter tmpWriter = new SDFWriter(tmpText)) {
+            tmpWriter.write(tmpPermuted);
+        }
+        return tmpText.toString();
+    }
+}
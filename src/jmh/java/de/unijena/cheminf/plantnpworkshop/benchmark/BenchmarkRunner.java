@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Runs the benchmarks of this package with the GC profiler (allocation rate per operation) and writes the results
+ * to target/jmh-result.json, so runs before and after a change can be compared. All JMH command line options are
+ * accepted and take precedence, e.g. 'FingerprintBenchmark -p corpusSize=10000 -rff other.json'.
+ */
+public class BenchmarkRunner {
+    /**
+     * Default result file.
+     */
+    public static final String RESULT_FILE = "target/jmh-result.json";
+
+    /**
+     * @param args JMH command line options
+     * @throws CommandLineOptionException if the options cannot be parsed
+     * @throws RunnerException if a benchmark fails
+     * @throws IOException if the default JMH launcher fails to list or print its help
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+        CommandLineOptions tmpCommandLineOptions = new CommandLineOptions(args);
+        if (tmpCommandLineOptions.shouldHelp() || tmpCommandLineOptions.shouldList()
+                || tmpCommandLineOptions.shouldListProfilers() || tmpCommandLineOptions.shouldListResultFormats()) {
+            //no benchmark run, the default JMH launcher handles these
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder tmpOptions = new OptionsBuilder().parent(tmpCommandLineOptions);
+        if (tmpCommandLineOptions.getIncludes().isEmpty()) {
+            tmpOptions.include(BenchmarkRunner.class.getPackageName() + "\\..*Benchmark");
+        }
+        if (tmpCommandLineOptions.getProfilers().stream().noneMatch(aProfiler -> aProfiler.getKlass().equals(GCProfiler.class.getName())
+                || aProfiler.getKlass().equals("gc"))) {
+            tmpOptions.addProfiler(GCProfiler.class);
+        }
+        if (!tmpCommandLineOptions.getResultFormat().hasValue()) {
+            tmpOptions.resultFormat(ResultFormatType.JSON);
+        }
+        if (!tmpCommandLineOptions.getResult().hasValue()) {
+            tmpOptions.result(BenchmarkRunner.RESULT_FILE);
+        }
+        new Runner(tmpOptions.build()).run();
+    }
+}
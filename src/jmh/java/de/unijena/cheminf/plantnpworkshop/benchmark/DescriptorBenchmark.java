@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.qsar.DescriptorValue;
+import org.openscience.cdk.qsar.descriptors.molecular.ALOGPDescriptor;
+import org.openscience.cdk.qsar.descriptors.molecular.PetitjeanNumberDescriptor;
+import org.openscience.cdk.qsar.descriptors.molecular.RuleOfFiveDescriptor;
+import org.openscience.cdk.qsar.descriptors.molecular.ZagrebIndexDescriptor;
+
+/**
+ * The four descriptors of DescriptorCalculation, each applied to the molecule form it requires.
+ */
+public class DescriptorBenchmark extends AbstractCorpusBenchmark {
+    private PetitjeanNumberDescriptor petitjeanNumberDescriptor;
+
+    private ZagrebIndexDescriptor zagrebIndexDescriptor;
+
+    private RuleOfFiveDescriptor ruleOfFiveDescriptor;
+
+    private ALOGPDescriptor aLogPDescriptor;
+
+    @Override
+    protected void setUp() throws CDKException {
+        this.petitjeanNumberDescriptor = new PetitjeanNumberDescriptor();
+        this.petitjeanNumberDescriptor.initialise(DefaultChemObjectBuilder.getInstance());
+        this.zagrebIndexDescriptor = new ZagrebIndexDescriptor();
+        this.zagrebIndexDescriptor.initialise(DefaultChemObjectBuilder.getInstance());
+        this.ruleOfFiveDescriptor = new RuleOfFiveDescriptor();
+        this.ruleOfFiveDescriptor.initialise(DefaultChemObjectBuilder.getInstance());
+        this.aLogPDescriptor = new ALOGPDescriptor();
+        this.aLogPDescriptor.initialise(DefaultChemObjectBuilder.getInstance());
+    }
+
+    @Benchmark
+    public DescriptorValue petitjeanNumber() {
+        return this.petitjeanNumberDescriptor.calculate(this.corpus.getHydrogenSuppressed(this.next()));
+    }
+
+    @Benchmark
+    public DescriptorValue zagrebIndex() {
+        return this.zagrebIndexDescriptor.calculate(this.corpus.getHydrogenSuppressed(this.next()));
+    }
+
+    @Benchmark
+    public DescriptorValue ruleOfFive() {
+        return this.ruleOfFiveDescriptor.calculate(this.corpus.getHydrogenSuppressed(this.next()));
+    }
+
+    @Benchmark
+    public DescriptorValue aLogP() {
+        return this.aLogPDescriptor.calculate(this.corpus.getExplicitHydrogens(this.next()));
+    }
+}
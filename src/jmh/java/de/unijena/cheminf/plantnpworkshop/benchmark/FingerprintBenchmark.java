@@ -0,0 +1,51 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.fingerprint.CircularFingerprinter;
+import org.openscience.cdk.fingerprint.IBitFingerprint;
+import org.openscience.cdk.fingerprint.PubchemFingerprinter;
+
+/**
+ * PubChem versus circular (ECFP6) fingerprints, as calculated by FingerprintCalculation.
+ */
+public class FingerprintBenchmark extends AbstractCorpusBenchmark {
+    private final PubchemFingerprinter pubChemFingerprinter = new PubchemFingerprinter(DefaultChemObjectBuilder.getInstance());
+
+    private final CircularFingerprinter circularFingerprinter = new CircularFingerprinter();
+
+    @Benchmark
+    public IBitFingerprint pubChemFingerprint() throws CDKException {
+        return this.pubChemFingerprinter.getBitFingerprint(this.corpus.getExplicitHydrogens(this.next()));
+    }
+
+    @Benchmark
+    public IBitFingerprint circularFingerprint() throws CDKException {
+        return this.circularFingerprinter.getBitFingerprint(this.corpus.getAsRead(this.next()));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop.benchmark;
+
+import de.unijena.cheminf.plantnpworkshop.SDFPropertyScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.io.iterator.IteratingSDFReader;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parsing of SDF records with {@link IteratingSDFReader}, compared with the property-only pass of
+ * {@link SDFPropertyScanner}.
+ */
+public class ParsingBenchmark extends AbstractCorpusBenchmark {
+    private static final List<String> PROPERTY_NAMES = Arrays.asList("COCONUT_ID", "Name");
+
+    private final IChemObjectBuilder builder = DefaultChemObjectBuilder.getInstance();
+
+    private final IChemObjectBuilder silentBuilder = SilentChemObjectBuilder.getInstance();
+
+    /**
+     * The corpus as SD file, the scanner reads from a file channel.
+     */
+    private Path file;
+
+    @Override
+    protected void setUp() throws IOException {
+        this.file = Files.createTempFile("corpus", ".sdf");
+        Files.write(this.file, this.corpus.getText().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    /**
+     * Parses one record with its own reader, like the workers of the SDF record pipeline.
+     */
+    @Benchmark
+    public IAtomContainer parseRecord() throws IOException {
+        return BenchmarkCorpus.parse(this.corpus.getRecord(this.next()), this.builder);
+    }
+
+    /**
+     * Parses the whole corpus with a single reader; one operation is one pass over all 'corpusSize' records.
+     */
+    @Benchmark
+    public void parseCorpus(Blackhole aBlackhole) throws IOException {
+        try (IteratingSDFReader tmpReader = new IteratingSDFReader(new StringReader(this.corpus.getText()), this.builder, true)) {
+            while (tmpReader.hasNext()) {
+                aBlackhole.consume(tmpReader.next());
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #parseCorpus(Blackhole)} with the SilentChemObjectBuilder.
+     */
+    @Benchmark
+    public void parseCorpusSilent(Blackhole aBlackhole) throws IOException {
+        try (IteratingSDFReader tmpReader = new IteratingSDFReader(new StringReader(this.corpus.getText()), this.silentBuilder, true)) {
+            while (tmpReader.hasNext()) {
+                aBlackhole.consume(tmpReader.next());
+            }
+        }
+    }
+
+    /**
+     * Reads the COCONUT_ID and Name of all records without building atom containers; one operation is one pass
+     * over all 'corpusSize' records.
+     */
+    @Benchmark
+    public void scanCorpusProperties(Blackhole aBlackhole) throws IOException, CDKException {
+        try (SDFPropertyScanner tmpScanner = new SDFPropertyScanner(this.file)) {
+            tmpScanner.scan(ParsingBenchmark.PROPERTY_NAMES, aRecord -> aBlackhole.consume(aRecord.getProperty("COCONUT_ID")));
+        }
+    }
+}
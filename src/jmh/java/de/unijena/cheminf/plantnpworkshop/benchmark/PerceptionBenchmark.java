@@ -0,0 +1,62 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openscience.cdk.aromaticity.Aromaticity;
+import org.openscience.cdk.aromaticity.ElectronDonation;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.graph.Cycles;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+/**
+ * Atom type perception and aromaticity detection, the preprocessing shared by the descriptors and the PubChem
+ * fingerprint. Every invocation works on a fresh copy of a molecule as read, since both steps store their results on
+ * the molecule and later passes would otherwise start from already typed atoms and flagged rings. Cloning is
+ * measured separately by {@link #cloneOnly()} and should be subtracted from the other results.
+ */
+public class PerceptionBenchmark extends AbstractCorpusBenchmark {
+    private final Aromaticity aromaticity = new Aromaticity(ElectronDonation.cdk(), Cycles.cdkAromaticSet());
+
+    @Benchmark
+    public IAtomContainer cloneOnly() throws CloneNotSupportedException {
+        return this.corpus.getAsRead(this.next()).clone();
+    }
+
+    @Benchmark
+    public IAtomContainer perceiveAtomTypes() throws CDKException, CloneNotSupportedException {
+        IAtomContainer tmpMolecule = this.corpus.getAsRead(this.next()).clone();
+        AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(tmpMolecule);
+        return tmpMolecule;
+    }
+
+    @Benchmark
+    public boolean perceiveAtomTypesAndApplyAromaticity() throws CDKException, CloneNotSupportedException {
+        IAtomContainer tmpMolecule = this.corpus.getAsRead(this.next()).clone();
+        AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(tmpMolecule);
+        return this.aromaticity.apply(tmpMolecule);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.fingerprint.CircularFingerprinter;
+import org.openscience.cdk.fingerprint.IBitFingerprint;
+import org.openscience.cdk.fingerprint.PubchemFingerprinter;
+import org.openscience.cdk.similarity.Tanimoto;
+
+/**
+ * Tanimoto similarity of precomputed fingerprints, every molecule against its successor in the corpus.
+ */
+public class SimilarityBenchmark extends AbstractCorpusBenchmark {
+    private IBitFingerprint[] pubChemFingerprints;
+
+    private IBitFingerprint[] circularFingerprints;
+
+    @Override
+    protected void setUp() throws CDKException {
+        PubchemFingerprinter tmpPubChemFingerprinter = new PubchemFingerprinter(DefaultChemObjectBuilder.getInstance());
+        CircularFingerprinter tmpCircularFingerprinter = new CircularFingerprinter();
+        this.pubChemFingerprints = new IBitFingerprint[this.corpus.size()];
+        this.circularFingerprints = new IBitFingerprint[this.corpus.size()];
+        for (int i = 0; i < this.corpus.size(); i++) {
+            this.pubChemFingerprints[i] = tmpPubChemFingerprinter.getBitFingerprint(this.corpus.getExplicitHydrogens(i));
+            this.circularFingerprints[i] = tmpCircularFingerprinter.getBitFingerprint(this.corpus.getAsRead(i));
+        }
+    }
+
+    @Benchmark
+    public double pubChemTanimoto() {
+        int tmpIndex = this.next();
+        return Tanimoto.calculate(this.pubChemFingerprints[tmpIndex],
+                this.pubChemFingerprints[(tmpIndex + 1) % this.pubChemFingerprints.length]);
+    }
+
+    @Benchmark
+    public double circularTanimoto() {
+        int tmpIndex = this.next();
+        return Tanimoto.calculate(this.circularFingerprints[tmpIndex],
+                this.circularFingerprints[(tmpIndex + 1) % this.circularFingerprints.length]);
+    }
+}
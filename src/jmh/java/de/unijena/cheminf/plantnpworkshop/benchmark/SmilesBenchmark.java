@@ -0,0 +1,49 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.smiles.SmiFlavor;
+import org.openscience.cdk.smiles.SmilesGenerator;
+
+/**
+ * The two SMILES flavors generated by CDKBasics, applied to the molecules as read.
+ */
+public class SmilesBenchmark extends AbstractCorpusBenchmark {
+    private final SmilesGenerator uniqueSmilesGenerator = new SmilesGenerator(SmiFlavor.Unique);
+
+    private final SmilesGenerator absoluteSmilesGenerator = new SmilesGenerator(SmiFlavor.Absolute);
+
+    @Benchmark
+    public String uniqueSmiles() throws CDKException {
+        return this.uniqueSmilesGenerator.create(this.corpus.getAsRead(this.next()));
+    }
+
+    @Benchmark
+    public String absoluteSmiles() throws CDKException {
+        return this.absoluteSmilesGenerator.create(this.corpus.getAsRead(this.next()));
+    }
+}
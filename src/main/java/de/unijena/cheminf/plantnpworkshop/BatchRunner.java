@@ -0,0 +1,591 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sharded, resumable batch runner for the descriptor and fingerprint calculations of {@link DescriptorCalculation}
+ * and {@link FingerprintCalculation} on library-scale SD files.
+ * <p>
+ * The input file is split into byte ranges that end after a "$$$$" delimiter line, so every shard holds complete
+ * records. The shard plan is stored in the work directory together with the size and modification time of the
+ * input. Every shard is processed by its own {@link SDFRecordPipeline}, either on a thread of this JVM or in a
+ * separate local JVM process, so a crash only loses the shard it happened in. The results of a shard are written in
+ * the binary columnar format and a '.done' checkpoint file is written once the shard is complete. Running the batch
+ * again with the same work directory skips all checkpointed shards and only processes the remaining ones. Shards
+ * with timed out or failed molecules are checkpointed as well and only processed again on request, e.g. with a
+ * longer timeout.
+ * <p>
+ * Every molecule is calculated on a separate thread and abandoned after the per-molecule timeout, so a molecule
+ * stuck e.g. in ring perception or ALogP does not stall its pipeline worker. CDK calculations do not react to
+ * interrupts, so the abandoned thread keeps running, occupying a core and its memory, until the calculation ends or
+ * the JVM exits, and may still store its result in the result cache. A shard process exits after its shard, but in
+ * thread mode the abandoned threads accumulate over the whole run, so the number of timeouts a thread mode run
+ * tolerates is limited; further shards with a timeout fail and can be retried in process mode. Library-scale runs
+ * should therefore use process mode. Timed out and failed molecules are listed per shard and are not part of the
+ * results. Retrying them processes their whole shards again, not only the listed records.
+ * <p>
+ * When all shards are complete, their results are merged in shard order, i.e. in input order, into one output file
+ * and the failure lists into 'failed.tsv'. The merged output is the same regardless of how many shards ran in which
+ * order or how often the batch was interrupted.
+ */
+public class BatchRunner {
+    /**
+     * Byte range of the input file, from the start of a record to the end of a delimiter line or the file.
+     */
+    private static final class Shard {
+        private final int number;
+
+        private final long start;
+
+        private final long end;
+
+        private Shard(int aNumber, long aStart, long anEnd) {
+            this.number = aNumber;
+            this.start = aStart;
+            this.end = anEnd;
+        }
+    }
+
+    /**
+     * Result row or failure description of one molecule, handed to the consumer in input order.
+     */
+    private static final class Outcome {
+        private final ResultRow row;
+
+        private final String failure;
+
+        private Outcome(ResultRow aRow, String aFailure) {
+            this.row = aRow;
+            this.failure = aFailure;
+        }
+    }
+
+    /**
+     * Reads a byte range of a file channel.
+     */
+    private static final class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+
+        private long position;
+
+        private final long end;
+
+        private RangeInputStream(FileChannel aChannel, long aStart, long anEnd) {
+            this.channel = aChannel;
+            this.position = aStart;
+            this.end = anEnd;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] tmpByte = new byte[1];
+            return this.read(tmpByte, 0, 1) < 0 ? -1 : tmpByte[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] aBuffer, int anOffset, int aLength) throws IOException {
+            if (this.position >= this.end) {
+                return -1;
+            }
+            int tmpLength = (int) Math.min(aLength, this.end - this.position);
+            int tmpRead = this.channel.read(ByteBuffer.wrap(aBuffer, anOffset, tmpLength), this.position);
+            if (tmpRead > 0) {
+                this.position += tmpRead;
+            }
+            return tmpRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Name of the shard plan file in the work directory.
+     */
+    public static final String PLAN_FILE_NAME = "shards.plan";
+
+    /**
+     * Name of the merged failure list in the work directory.
+     */
+    public static final String FAILURE_FILE_NAME = "failed.tsv";
+
+    /**
+     * Marks a shard plan file, "CNPB" in ASCII.
+     */
+    private static final int MAGIC = 0x434e5042;
+
+    /**
+     * Version of the shard plan file layout, to be increased on incompatible changes.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Prefix of the JVM options that set system properties; the properties of this class are handed to shard processes
+     * separately.
+     */
+    private static final String PROPERTY_OPTION_PREFIX = "-Dplantnpworkshop.";
+
+    /**
+     * Prefix of the JVM option that enables the debug agent, whose port cannot be shared with shard processes.
+     */
+    private static final String DEBUG_AGENT_OPTION_PREFIX = "-agentlib:jdwp";
+
+    /**
+     * Properties that are not handed to shard processes: the result cache file must not be written by several
+     * processes, and the output is written by the merge only.
+     */
+    private static final String[] PROCESS_EXCLUDED_PROPERTIES = {"plantnpworkshop.cache", "plantnpworkshop.output",
+            "plantnpworkshop.batch.shard"};
+
+    /**
+     * Runs the descriptor ('descriptors', the default) or fingerprint ('fingerprints') calculation selected by the
+     * system property 'plantnpworkshop.batch.job' on the SD file given as first argument (default
+     * COCONUTset-10.sdf) and merges the results into the file given by 'plantnpworkshop.output' (default
+     * 'results.tsv' in the work directory, format by extension as in {@link ResultSink#fromSystemProperties(ResultSchema)}).
+     * <p>
+     * Further system properties: 'plantnpworkshop.batch.dir' (work directory, default target/batch),
+     * 'plantnpworkshop.batch.shards' (number of shards of a new plan, default 16), 'plantnpworkshop.batch.parallel'
+     * (shards processed at the same time, default 1), 'plantnpworkshop.batch.processes=true' (one JVM process per
+     * shard instead of a thread), 'plantnpworkshop.batch.jvmargs' (space-separated options added to the JVM options of
+     * this process for shard processes, e.g. '-Xmx4g'), 'plantnpworkshop.batch.timeout' (seconds per molecule,
+     * default 60), 'plantnpworkshop.batch.maxtimeouts' (timed out molecules a thread mode run tolerates before further
+     * shards with a timeout fail, default the number of processors) and 'plantnpworkshop.batch.retryfailed=true'
+     * (process checkpointed shards with timed out or failed molecules again; the whole shard is processed, not only
+     * the failed records). Process mode is recommended for library-scale runs. The workers per shard, result cache
+     * (threads only) and metrics are configured as for the other demo classes. The number of shards of an existing
+     * plan is not changed.
+     *
+     * @param args the command line arguments (optional: path of the SD file)
+     * @throws IOException if reading or writing fails, or if shards failed; the batch can then be run again to resume
+     */
+    public static void main(String[] args) throws IOException, CDKException {
+
+        //*configuration*
+        Path tmpSDFile = Path.of(args.length > 0 ? args[0] : "src/main/resources/COCONUTset-10.sdf");
+        String tmpJob = System.getProperty("plantnpworkshop.batch.job", "descriptors");
+        if (!tmpJob.equals("descriptors") && !tmpJob.equals("fingerprints")) {
+            throw new IllegalArgumentException("Unknown job " + tmpJob + ", expected descriptors or fingerprints.");
+        }
+        Path tmpDirectory = Path.of(System.getProperty("plantnpworkshop.batch.dir", "target/batch"));
+        int tmpShardCount = Integer.getInteger("plantnpworkshop.batch.shards", 16);
+        int tmpParallelShardCount = Integer.getInteger("plantnpworkshop.batch.parallel", 1);
+        boolean tmpUseProcesses = Boolean.getBoolean("plantnpworkshop.batch.processes");
+        long tmpTimeoutSeconds = Long.getLong("plantnpworkshop.batch.timeout", 60L);
+        int tmpMaxTimeouts = Integer.getInteger("plantnpworkshop.batch.maxtimeouts", Runtime.getRuntime().availableProcessors());
+        boolean tmpRetryFailed = Boolean.getBoolean("plantnpworkshop.batch.retryfailed");
+        if (tmpShardCount < 1 || tmpParallelShardCount < 1 || tmpTimeoutSeconds <= 0) {
+            throw new IllegalArgumentException("Shard count, parallel shard count and timeout must be positive.");
+        }
+        if (tmpMaxTimeouts < 0) {
+            throw new IllegalArgumentException("Maximum number of timeouts must not be negative.");
+        }
+        Files.createDirectories(tmpDirectory);
+
+        //*shard plan*
+        boolean tmpIsResumed = Files.exists(tmpDirectory.resolve(BatchRunner.PLAN_FILE_NAME));
+        List<Shard> tmpShards = BatchRunner.loadOrCreatePlan(tmpSDFile, tmpDirectory, tmpJob, tmpShardCount);
+        String tmpSingleShard = System.getProperty("plantnpworkshop.batch.shard");
+        if (tmpSingleShard != null) {
+            //started as shard process by the parent batch
+            Shard tmpShard = tmpShards.get(Integer.parseInt(tmpSingleShard));
+            try (PipelineMetrics tmpMetrics = PipelineMetrics.fromSystemProperties()) {
+                //abandoned calculations end with the process, so timeouts are not limited
+                BatchRunner.runShard(tmpSDFile, tmpDirectory, tmpJob, tmpShard, tmpTimeoutSeconds, new AtomicInteger(),
+                        Integer.MAX_VALUE, ResultCache.disabled(), tmpMetrics);
+            }
+            return;
+        }
+
+        if (tmpIsResumed && System.getProperty("plantnpworkshop.batch.shards") != null && tmpShards.size() != tmpShardCount) {
+            System.out.println("Resuming the existing plan of " + tmpShards.size() + " shards, plantnpworkshop.batch.shards="
+                    + tmpShardCount + " only applies to new work directories");
+        }
+
+        //*processing pending shards*
+        List<Shard> tmpPending = new ArrayList<>();
+        for (Shard tmpShard : tmpShards) {
+            Path tmpDoneFile = BatchRunner.getShardFile(tmpDirectory, tmpShard, ".done");
+            if (!Files.exists(tmpDoneFile) || tmpRetryFailed && BatchRunner.getFailureCount(tmpDoneFile) > 0) {
+                tmpPending.add(tmpShard);
+            }
+        }
+        System.out.println(tmpShards.size() + " shards, " + (tmpShards.size() - tmpPending.size())
+                + " already complete, " + tmpPending.size() + " to process"
+                + (tmpRetryFailed ? " (including complete shards with failed molecules)" : ""));
+        AtomicInteger tmpFailedShardCount = new AtomicInteger();
+        //calculations abandoned in this JVM, they keep running until they end
+        AtomicInteger tmpTimeoutCount = new AtomicInteger();
+        ExecutorService tmpShardPool = Executors.newFixedThreadPool(tmpParallelShardCount);
+        try (PipelineMetrics tmpMetrics = PipelineMetrics.fromSystemProperties();
+                ResultCache tmpCache = tmpUseProcesses ? ResultCache.disabled() : ResultCache.fromSystemProperties()) {
+            List<Future<?>> tmpFutures = new ArrayList<>();
+            for (Shard tmpShard : tmpPending) {
+                tmpFutures.add(tmpShardPool.submit(() -> {
+                    try {
+                        if (tmpUseProcesses) {
+                            BatchRunner.runShardProcess(tmpSDFile, tmpShard);
+                        } else {
+                            BatchRunner.runShard(tmpSDFile, tmpDirectory, tmpJob, tmpShard, tmpTimeoutSeconds, tmpTimeoutCount,
+                                    tmpMaxTimeouts, tmpCache, tmpMetrics);
+                        }
+                        System.out.println("Shard " + tmpShard.number + " complete");
+                    } catch (Exception anException) {
+                        //the other shards go on, this one is processed again on the next run
+                        tmpFailedShardCount.incrementAndGet();
+                        System.err.println("Shard " + tmpShard.number + " failed: " + anException);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> tmpFuture : tmpFutures) {
+                tmpFuture.get();
+            }
+        } catch (InterruptedException anException) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for shards.", anException);
+        } catch (ExecutionException anException) {
+            throw new IOException("Shard processing failed.", anException.getCause());
+        } finally {
+            tmpShardPool.shutdownNow();
+        }
+        if (tmpFailedShardCount.get() > 0) {
+            throw new IOException(tmpFailedShardCount.get() + " of " + tmpShards.size()
+                    + " shards failed; run the batch again to resume with them.");
+        }
+
+        //*deterministic merge*
+        String tmpOutputName = System.getProperty("plantnpworkshop.output");
+        File tmpOutputFile = tmpOutputName != null ? new File(tmpOutputName) : tmpDirectory.resolve("results.tsv").toFile();
+        ResultSchema tmpSchema = BatchRunner.createSchema(tmpJob, SDFRecordPipeline.getConfiguredBuilder());
+        long tmpFailureCount = BatchRunner.merge(tmpDirectory, tmpShards, tmpSchema, tmpOutputFile);
+        System.out.println("Results of all shards merged into " + tmpOutputFile + ", " + tmpFailureCount
+                + " failed or timed out molecules listed in " + tmpDirectory.resolve(BatchRunner.FAILURE_FILE_NAME));
+        if (tmpFailureCount > 0) {
+            System.out.println("Run the batch again with -Dplantnpworkshop.batch.retryfailed=true to process their shards again.");
+        }
+    }
+
+    /**
+     * Processes one shard and writes its results, failure list and checkpoint. Results of an earlier, incomplete
+     * attempt are overwritten. The shard fails if a timeout raises the number of abandoned calculations of this JVM
+     * above the maximum.
+     */
+    private static void runShard(Path anSDFile, Path aDirectory, String aJob, Shard aShard, long aTimeoutSeconds,
+            AtomicInteger aTimeoutCount, int aMaxTimeouts, ResultCache aCache, PipelineMetrics aMetrics)
+            throws IOException, CDKException {
+        //a shard processed again must not count as complete until it is
+        Path tmpDoneFile = BatchRunner.getShardFile(aDirectory, aShard, ".done");
+        Files.deleteIfExists(tmpDoneFile);
+        IChemObjectBuilder tmpBuilder = SDFRecordPipeline.getConfiguredBuilder();
+        ResultSchema tmpSchema = BatchRunner.createSchema(aJob, tmpBuilder);
+        SDFRecordPipeline.RecordProcessor<ResultRow> tmpCalculation;
+        if (aJob.equals("fingerprints")) {
+            tmpCalculation = (aMolecule, anIndex) -> FingerprintCalculation.calculateFingerprints(aMolecule, tmpBuilder, aCache, aMetrics, null);
+        } else {
+            tmpCalculation = (aMolecule, anIndex) -> DescriptorCalculation.calculateDescriptors(aMolecule, tmpBuilder, aCache, aMetrics);
+        }
+        int tmpWorkerCount = SDFRecordPipeline.getConfiguredWorkerCount();
+        SDFRecordPipeline<Outcome> tmpPipeline = new SDFRecordPipeline<>(tmpBuilder, tmpWorkerCount, 4 * tmpWorkerCount);
+        tmpPipeline.setMetrics(aMetrics);
+        //calculations run on daemon threads, so an abandoned calculation does not keep the JVM alive
+        ExecutorService tmpCalculators = Executors.newCachedThreadPool(aRunnable -> {
+            Thread tmpThread = new Thread(aRunnable, "shard-" + aShard.number + "-calculation");
+            tmpThread.setDaemon(true);
+            return tmpThread;
+        });
+        long[] tmpCounts = new long[2];
+        try (ResultSink tmpSink = new BinaryColumnarResultSink(BatchRunner.getShardFile(aDirectory, aShard, ".bin").toFile(), tmpSchema);
+                Writer tmpFailures = Files.newBufferedWriter(BatchRunner.getShardFile(aDirectory, aShard, ".failed.tsv"),
+                        StandardCharsets.UTF_8)) {
+            tmpPipeline.run(new RangeInputStream(FileChannel.open(anSDFile, StandardOpenOption.READ), aShard.start, aShard.end),
+                    (aMolecule, anIndex) -> BatchRunner.calculate(aMolecule, anIndex, tmpCalculation, tmpCalculators,
+                            aTimeoutSeconds, aTimeoutCount, aMaxTimeouts),
+                    anOutcome -> {
+                        if (anOutcome.row != null) {
+                            tmpSink.write(anOutcome.row);
+                            tmpCounts[0]++;
+                        } else {
+                            tmpFailures.write(aShard.number + "\t" + anOutcome.failure + "\n");
+                            tmpCounts[1]++;
+                        }
+                    });
+        } finally {
+            tmpCalculators.shutdownNow();
+        }
+        //*checkpoint*
+        Path tmpPartFile = tmpDoneFile.resolveSibling(tmpDoneFile.getFileName() + ".part");
+        Files.write(tmpPartFile, ("records\t" + tmpPipeline.getRecordCount() + "\nskipped\t" + tmpPipeline.getSkippedRecordCount()
+                + "\nresults\t" + tmpCounts[0] + "\nfailed\t" + tmpCounts[1] + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpPartFile, tmpDoneFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Column layout of the results of the given job.
+     */
+    private static ResultSchema createSchema(String aJob, IChemObjectBuilder aBuilder) throws CDKException {
+        return aJob.equals("fingerprints") ? FingerprintCalculation.SCHEMA
+                : DescriptorCalculation.createSchema(CalculatorRegistry.forCurrentThread(aBuilder));
+    }
+
+    /**
+     * Calculates the results of one molecule on a calculation thread and waits at most the timeout for them. Called
+     * on the pipeline workers.
+     *
+     * @throws IOException if the calculation throws one or the timeout is one more than the maximum
+     */
+    private static Outcome calculate(IAtomContainer aMolecule, long aRecordIndex, SDFRecordPipeline.RecordProcessor<ResultRow> aCalculation,
+            ExecutorService aCalculators, long aTimeoutSeconds, AtomicInteger aTimeoutCount, int aMaxTimeouts) throws IOException {
+        String tmpDescription = aRecordIndex + "\t" + aMolecule.getProperty("COCONUT_ID");
+        Future<ResultRow> tmpFuture = aCalculators.submit(() -> aCalculation.process(aMolecule, aRecordIndex));
+        try {
+            return new Outcome(tmpFuture.get(aTimeoutSeconds, TimeUnit.SECONDS), null);
+        } catch (TimeoutException anException) {
+            tmpFuture.cancel(true);
+            if (aTimeoutCount.incrementAndGet() > aMaxTimeouts) {
+                throw new IOException("More than " + aMaxTimeouts + " calculations timed out and are still running in this JVM; "
+                        + "retry the remaining shards with -Dplantnpworkshop.batch.processes=true.");
+            }
+            return new Outcome(null, tmpDescription + "\ttimeout after " + aTimeoutSeconds + " s");
+        } catch (ExecutionException anException) {
+            Throwable tmpCause = anException.getCause();
+            if (tmpCause instanceof IOException) {
+                throw (IOException) tmpCause;
+            }
+            return new Outcome(null, tmpDescription + "\t" + String.valueOf(tmpCause).replace('\t', ' ').replace('\n', ' '));
+        } catch (InterruptedException anException) {
+            tmpFuture.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a calculation.", anException);
+        }
+    }
+
+    /**
+     * Processes one shard in a new JVM with the class path, JVM options and system properties of this one, followed by
+     * the options of 'plantnpworkshop.batch.jvmargs'.
+     */
+    private static void runShardProcess(Path anSDFile, Shard aShard) throws IOException, InterruptedException {
+        List<String> tmpCommand = new ArrayList<>();
+        tmpCommand.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        for (String tmpArgument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!tmpArgument.startsWith(BatchRunner.PROPERTY_OPTION_PREFIX) && !tmpArgument.startsWith(BatchRunner.DEBUG_AGENT_OPTION_PREFIX)) {
+                tmpCommand.add(tmpArgument);
+            }
+        }
+        String tmpJVMArguments = System.getProperty("plantnpworkshop.batch.jvmargs", "").trim();
+        if (!tmpJVMArguments.isEmpty()) {
+            //added last, so they override options of this JVM
+            tmpCommand.addAll(List.of(tmpJVMArguments.split("\\s+")));
+        }
+        tmpCommand.add("-cp");
+        tmpCommand.add(System.getProperty("java.class.path"));
+        for (Map.Entry<Object, Object> tmpProperty : System.getProperties().entrySet()) {
+            String tmpName = tmpProperty.getKey().toString();
+            if (tmpName.startsWith("plantnpworkshop.") && !List.of(BatchRunner.PROCESS_EXCLUDED_PROPERTIES).contains(tmpName)) {
+                tmpCommand.add("-D" + tmpName + "=" + tmpProperty.getValue());
+            }
+        }
+        tmpCommand.add("-Dplantnpworkshop.batch.shard=" + aShard.number);
+        tmpCommand.add(BatchRunner.class.getName());
+        tmpCommand.add(anSDFile.toString());
+        Process tmpProcess = new ProcessBuilder(tmpCommand).inheritIO().start();
+        int tmpExitCode = tmpProcess.waitFor();
+        if (tmpExitCode != 0) {
+            throw new IOException("Shard process exited with code " + tmpExitCode + ".");
+        }
+    }
+
+    /**
+     * Merges the results and failure lists of all shards in shard order.
+     *
+     * @return number of failed molecules
+     */
+    private static long merge(Path aDirectory, List<Shard> aShards, ResultSchema aSchema, File anOutputFile) throws IOException {
+        long tmpFailureCount = 0;
+        try (ResultSink tmpSink = ResultSink.forFile(anOutputFile, aSchema);
+                BufferedWriter tmpFailures = Files.newBufferedWriter(aDirectory.resolve(BatchRunner.FAILURE_FILE_NAME),
+                        StandardCharsets.UTF_8)) {
+            tmpFailures.write("shard\trecord in shard\tCOCONUT_ID\treason\n");
+            for (Shard tmpShard : aShards) {
+                BinaryColumnarResultSink.read(BatchRunner.getShardFile(aDirectory, tmpShard, ".bin").toFile(), tmpSink);
+                for (String tmpLine : Files.readAllLines(BatchRunner.getShardFile(aDirectory, tmpShard, ".failed.tsv"),
+                        StandardCharsets.UTF_8)) {
+                    tmpFailures.write(tmpLine + "\n");
+                    tmpFailureCount++;
+                }
+            }
+        }
+        return tmpFailureCount;
+    }
+
+    /**
+     * Reads the shard plan of the work directory, or splits the SD file and writes a new plan if there is none.
+     *
+     * @throws IOException if the plan belongs to another input file, a changed input file or another job
+     */
+    private static List<Shard> loadOrCreatePlan(Path anSDFile, Path aDirectory, String aJob, int aShardCount) throws IOException {
+        Path tmpPlanFile = aDirectory.resolve(BatchRunner.PLAN_FILE_NAME);
+        String tmpInput = anSDFile.toAbsolutePath().normalize().toString();
+        long tmpFileSize = Files.size(anSDFile);
+        long tmpLastModified = Files.getLastModifiedTime(anSDFile).toMillis();
+        if (Files.exists(tmpPlanFile)) {
+            try (DataInputStream tmpPlan = new DataInputStream(new BufferedInputStream(Files.newInputStream(tmpPlanFile)))) {
+                if (tmpPlan.readInt() != BatchRunner.MAGIC || tmpPlan.readInt() != BatchRunner.FORMAT_VERSION) {
+                    throw new IOException(tmpPlanFile + " is not a shard plan of the current format; please delete the work directory.");
+                }
+                if (!tmpPlan.readUTF().equals(tmpInput) || tmpPlan.readLong() != tmpFileSize
+                        || tmpPlan.readLong() != tmpLastModified || !tmpPlan.readUTF().equals(aJob)) {
+                    throw new IOException("The work directory " + aDirectory + " belongs to another job or input file, or the "
+                            + "input file changed; please use another work directory or delete it.");
+                }
+                List<Shard> tmpShards = new ArrayList<>();
+                int tmpCount = tmpPlan.readInt();
+                for (int i = 0; i < tmpCount; i++) {
+                    tmpShards.add(new Shard(i, tmpPlan.readLong(), tmpPlan.readLong()));
+                }
+                return tmpShards;
+            }
+        }
+        List<Shard> tmpShards = BatchRunner.split(anSDFile, tmpFileSize, aShardCount);
+        Path tmpPartFile = tmpPlanFile.resolveSibling(tmpPlanFile.getFileName() + ".part");
+        try (DataOutputStream tmpPlan = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPartFile)))) {
+            tmpPlan.writeInt(BatchRunner.MAGIC);
+            tmpPlan.writeInt(BatchRunner.FORMAT_VERSION);
+            tmpPlan.writeUTF(tmpInput);
+            tmpPlan.writeLong(tmpFileSize);
+            tmpPlan.writeLong(tmpLastModified);
+            tmpPlan.writeUTF(aJob);
+            tmpPlan.writeInt(tmpShards.size());
+            for (Shard tmpShard : tmpShards) {
+                tmpPlan.writeLong(tmpShard.start);
+                tmpPlan.writeLong(tmpShard.end);
+            }
+        }
+        Files.move(tmpPartFile, tmpPlanFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return tmpShards;
+    }
+
+    /**
+     * Splits the file into at most the given number of byte ranges of about equal size that end after a delimiter
+     * line. Ranges that would be empty because a record spans several of them are dropped.
+     */
+    private static List<Shard> split(Path anSDFile, long aFileSize, int aShardCount) throws IOException {
+        List<Shard> tmpShards = new ArrayList<>();
+        try (FileChannel tmpChannel = FileChannel.open(anSDFile, StandardOpenOption.READ)) {
+            long tmpStart = 0;
+            for (int i = 1; i <= aShardCount && tmpStart < aFileSize; i++) {
+                long tmpEnd = i == aShardCount ? aFileSize
+                        : BatchRunner.findRecordEnd(tmpChannel, Math.max(tmpStart, aFileSize * i / aShardCount), aFileSize);
+                if (tmpEnd > tmpStart) {
+                    tmpShards.add(new Shard(tmpShards.size(), tmpStart, tmpEnd));
+                    tmpStart = tmpEnd;
+                }
+            }
+        }
+        return tmpShards;
+    }
+
+    /**
+     * Returns the position after the first delimiter line that starts at or after the given position, or the file
+     * size if there is none.
+     */
+    private static long findRecordEnd(FileChannel aChannel, long aPosition, long aFileSize) throws IOException {
+        byte[] tmpDelimiter = ("\n" + SDFRecordPipeline.RECORD_DELIMITER).getBytes(StandardCharsets.US_ASCII);
+        //one byte back, so a delimiter line starting exactly at the position is found
+        long tmpFrom = Math.max(0, aPosition - 1);
+        //not closed, the channel is closed by the caller
+        InputStream tmpInput = new BufferedInputStream(new RangeInputStream(aChannel, tmpFrom, aFileSize), 1 << 16);
+        long tmpOffset = tmpFrom;
+        int tmpMatched = 0;
+        boolean tmpInDelimiterLine = false;
+        int tmpByte;
+        while ((tmpByte = tmpInput.read()) >= 0) {
+            tmpOffset++;
+            if (tmpInDelimiterLine) {
+                if (tmpByte == '\n') {
+                    return tmpOffset;
+                }
+            } else if (tmpByte == tmpDelimiter[tmpMatched]) {
+                tmpMatched++;
+                if (tmpMatched == tmpDelimiter.length) {
+                    tmpInDelimiterLine = true;
+                }
+            } else {
+                tmpMatched = tmpByte == '\n' ? 1 : 0;
+            }
+        }
+        return aFileSize;
+    }
+
+    /**
+     * Reads the number of timed out and failed molecules from a checkpoint file.
+     */
+    private static long getFailureCount(Path aDoneFile) throws IOException {
+        for (String tmpLine : Files.readAllLines(aDoneFile, StandardCharsets.UTF_8)) {
+            if (tmpLine.startsWith("failed\t")) {
+                return Long.parseLong(tmpLine.substring("failed\t".length()));
+            }
+        }
+        throw new IOException("Checkpoint file " + aDoneFile + " is corrupt; please delete it.");
+    }
+
+    private static Path getShardFile(Path aDirectory, Shard aShard, String anExtension) {
+        return aDirectory.resolve(String.format("shard-%05d%s", aShard.number, anExtension));
+    }
+}
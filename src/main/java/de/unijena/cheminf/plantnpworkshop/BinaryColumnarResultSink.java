@@ -0,0 +1,173 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes result rows in a compact binary columnar format. Every batch is stored column by column, so a reader can
+ * load the values of one column as a primitive array.
+ * <p>
+ * Layout (big endian, strings in modified UTF-8 as written by {@link DataOutputStream#writeUTF(String)}):
+ * magic number, format version, number and names of the double columns, number and names of the int columns,
+ * followed by the batches. A batch consists of its row count, the COCONUT_IDs, the names, all double columns and
+ * all int columns. A batch with row count 0 terminates the file.
+ */
+public class BinaryColumnarResultSink extends ColumnBatchResultSink {
+    /**
+     * First bytes of every file, "CNPC".
+     */
+    public static final int MAGIC = 0x434e5043;
+
+    /**
+     * Version of the file layout.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private final DataOutputStream output;
+
+    /**
+     * @param aFile output file, overwritten if it exists
+     * @param aSchema column layout of the rows
+     * @throws IOException if the file cannot be created
+     */
+    public BinaryColumnarResultSink(File aFile, ResultSchema aSchema) throws IOException {
+        super(aSchema, ColumnBatchResultSink.DEFAULT_BATCH_SIZE);
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(aFile), 1 << 16));
+    }
+
+    /**
+     * Reads a file written by this sink and passes all rows to the given sink, e.g. for converting it to CSV. The
+     * given sink is not closed.
+     *
+     * @param aFile file written by a BinaryColumnarResultSink
+     * @param aSink receives the rows in file order
+     * @return the column layout stored in the file
+     * @throws IOException if the file cannot be read or is not in the expected format
+     */
+    public static ResultSchema read(File aFile, ResultSink aSink) throws IOException {
+        try (DataInputStream tmpInput = new DataInputStream(new BufferedInputStream(new FileInputStream(aFile), 1 << 16))) {
+            if (tmpInput.readInt() != BinaryColumnarResultSink.MAGIC
+                    || tmpInput.readInt() != BinaryColumnarResultSink.FORMAT_VERSION) {
+                throw new IOException(aFile + " is not a columnar result file of the current format.");
+            }
+            String[] tmpDoubleColumnNames = new String[tmpInput.readInt()];
+            for (int i = 0; i < tmpDoubleColumnNames.length; i++) {
+                tmpDoubleColumnNames[i] = tmpInput.readUTF();
+            }
+            String[] tmpIntColumnNames = new String[tmpInput.readInt()];
+            for (int i = 0; i < tmpIntColumnNames.length; i++) {
+                tmpIntColumnNames[i] = tmpInput.readUTF();
+            }
+            int tmpRowCount;
+            while ((tmpRowCount = tmpInput.readInt()) > 0) {
+                String[] tmpIds = new String[tmpRowCount];
+                for (int i = 0; i < tmpRowCount; i++) {
+                    tmpIds[i] = tmpInput.readUTF();
+                }
+                String[] tmpNames = new String[tmpRowCount];
+                for (int i = 0; i < tmpRowCount; i++) {
+                    tmpNames[i] = tmpInput.readUTF();
+                }
+                double[][] tmpDoubleColumns = new double[tmpDoubleColumnNames.length][tmpRowCount];
+                for (double[] tmpColumn : tmpDoubleColumns) {
+                    for (int i = 0; i < tmpRowCount; i++) {
+                        tmpColumn[i] = tmpInput.readDouble();
+                    }
+                }
+                int[][] tmpIntColumns = new int[tmpIntColumnNames.length][tmpRowCount];
+                for (int[] tmpColumn : tmpIntColumns) {
+                    for (int i = 0; i < tmpRowCount; i++) {
+                        tmpColumn[i] = tmpInput.readInt();
+                    }
+                }
+                for (int tmpRow = 0; tmpRow < tmpRowCount; tmpRow++) {
+                    double[] tmpDoubles = new double[tmpDoubleColumns.length];
+                    for (int i = 0; i < tmpDoubles.length; i++) {
+                        tmpDoubles[i] = tmpDoubleColumns[i][tmpRow];
+                    }
+                    int[] tmpInts = new int[tmpIntColumns.length];
+                    for (int i = 0; i < tmpInts.length; i++) {
+                        tmpInts[i] = tmpIntColumns[i][tmpRow];
+                    }
+                    aSink.write(new ResultRow(tmpIds[tmpRow], tmpNames[tmpRow], tmpDoubles, tmpInts));
+                }
+            }
+            return new ResultSchema(tmpDoubleColumnNames, tmpIntColumnNames);
+        }
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        this.output.writeInt(BinaryColumnarResultSink.MAGIC);
+        this.output.writeInt(BinaryColumnarResultSink.FORMAT_VERSION);
+        this.output.writeInt(this.schema.getDoubleColumnCount());
+        for (int i = 0; i < this.schema.getDoubleColumnCount(); i++) {
+            this.output.writeUTF(this.schema.getDoubleColumnName(i));
+        }
+        this.output.writeInt(this.schema.getIntColumnCount());
+        for (int i = 0; i < this.schema.getIntColumnCount(); i++) {
+            this.output.writeUTF(this.schema.getIntColumnName(i));
+        }
+    }
+
+    @Override
+    protected void writeBatch(int aRowCount) throws IOException {
+        this.output.writeInt(aRowCount);
+        for (int i = 0; i < aRowCount; i++) {
+            this.output.writeUTF(this.ids[i] == null ? "" : this.ids[i]);
+        }
+        for (int i = 0; i < aRowCount; i++) {
+            this.output.writeUTF(this.names[i] == null ? "" : this.names[i]);
+        }
+        for (double[] tmpColumn : this.doubleColumns) {
+            for (int i = 0; i < aRowCount; i++) {
+                this.output.writeDouble(tmpColumn[i]);
+            }
+        }
+        for (int[] tmpColumn : this.intColumns) {
+            for (int i = 0; i < aRowCount; i++) {
+                this.output.writeInt(tmpColumn[i]);
+            }
+        }
+    }
+
+    @Override
+    protected void closeOutput() throws IOException {
+        try {
+            //end marker
+            this.output.writeInt(0);
+        } finally {
+            this.output.close();
+        }
+    }
+}
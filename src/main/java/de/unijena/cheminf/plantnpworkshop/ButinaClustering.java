@@ -0,0 +1,269 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Butina (sphere exclusion) clustering of the fingerprints of a {@link FingerprintIndex}.
+ * <p>
+ * Two fingerprints are neighbours if their Tanimoto similarity is at least the threshold. The fingerprint with the
+ * most neighbours becomes the centroid of the first cluster, which takes all of its neighbours; then the unassigned
+ * fingerprint with the most neighbours becomes the next centroid, which takes its still unassigned neighbours, and
+ * so on until every fingerprint is assigned. Fingerprints without neighbours end up as singletons.
+ * <p>
+ * The neighbour lists are computed in two passes on a fork/join pool, and the full similarity matrix is never held
+ * in memory. The first pass only counts the neighbours of every fingerprint. If the neighbour lists fit into the
+ * memory budget, the second pass stores them in compressed sparse row layout (one int array of neighbours and one
+ * array of row offsets). Otherwise, only the counts are kept and the neighbours of every centroid are computed
+ * again when it is selected. In both passes, only the fingerprints whose cardinality admits the threshold are
+ * compared, since the index is ordered by cardinality, and every pair is compared once.
+ * <p>
+ * Instances are not thread-safe; the statistics refer to the last call of {@link #cluster(FingerprintIndex)}.
+ */
+public final class ButinaClustering {
+    /**
+     * Applies an action to every row of a range, splitting the range until it is small enough.
+     */
+    private static final class RowRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Rows processed by one task without further splitting.
+         */
+        private static final int GRAIN_SIZE = 64;
+
+        private final int from;
+
+        private final int to;
+
+        private final IntConsumer action;
+
+        private RowRangeTask(int aFrom, int aTo, IntConsumer anAction) {
+            this.from = aFrom;
+            this.to = aTo;
+            this.action = anAction;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= RowRangeTask.GRAIN_SIZE) {
+                for (int i = this.from; i < this.to; i++) {
+                    this.action.accept(i);
+                }
+            } else {
+                int tmpMiddle = (this.from + this.to) >>> 1;
+                ForkJoinTask.invokeAll(new RowRangeTask(this.from, tmpMiddle, this.action),
+                        new RowRangeTask(tmpMiddle, this.to, this.action));
+            }
+        }
+    }
+
+    private final double threshold;
+
+    private final long memoryBudget;
+
+    private final int parallelism;
+
+    private long neighborPairCount;
+
+    private boolean neighborListsStored;
+
+    /**
+     * @param aThreshold minimum Tanimoto similarity of neighbours, greater than 0
+     * @param aMemoryBudget maximum number of bytes the stored neighbour lists may occupy
+     * @param aParallelism number of threads computing the neighbour lists
+     * @throws IllegalArgumentException if a parameter is out of range
+     */
+    public ButinaClustering(double aThreshold, long aMemoryBudget, int aParallelism) {
+        if (!(aThreshold > 0.0) || aMemoryBudget < 0 || aParallelism < 1) {
+            throw new IllegalArgumentException("Threshold and parallelism must be positive, the memory budget not negative.");
+        }
+        this.threshold = aThreshold;
+        this.memoryBudget = aMemoryBudget;
+        this.parallelism = aParallelism;
+    }
+
+    /**
+     * Clusters all fingerprints of the index.
+     *
+     * @param anIndex the fingerprints
+     * @return clusters in the order of their creation, i.e. roughly by descending size; every cluster starts with
+     *         its centroid (score 1), followed by its members by descending similarity to the centroid
+     */
+    public List<List<SimilarityHit>> cluster(FingerprintIndex anIndex) {
+        int tmpCount = anIndex.size();
+        IntBuffer tmpCardinalities = anIndex.getCardinalities();
+        IntBuffer tmpIndices = anIndex.getIndices();
+        ForkJoinPool tmpPool = new ForkJoinPool(this.parallelism);
+        try {
+            //*counting*
+            //every pair is compared by its member with the lower storage position, the other one is counted atomically
+            int[] tmpForwardCounts = new int[tmpCount];
+            AtomicIntegerArray tmpBackwardCounts = new AtomicIntegerArray(tmpCount);
+            tmpPool.invoke(new RowRangeTask(0, tmpCount, aPosition -> {
+                int tmpEnd = this.getForwardEnd(anIndex, tmpCardinalities.get(aPosition));
+                int tmpFound = 0;
+                for (int tmpOther = aPosition + 1; tmpOther < tmpEnd; tmpOther++) {
+                    if (anIndex.getSimilarity(aPosition, tmpOther) >= this.threshold) {
+                        tmpFound++;
+                        tmpBackwardCounts.incrementAndGet(tmpOther);
+                    }
+                }
+                tmpForwardCounts[aPosition] = tmpFound;
+            }));
+            int[] tmpDegrees = new int[tmpCount];
+            long tmpPairCount = 0;
+            for (int i = 0; i < tmpCount; i++) {
+                tmpDegrees[i] = tmpForwardCounts[i] + tmpBackwardCounts.get(i);
+                tmpPairCount += tmpForwardCounts[i];
+            }
+            this.neighborPairCount = tmpPairCount;
+
+            //*storing*
+            //both directions of every pair, plus the row offsets
+            long tmpRequiredBytes = 2L * tmpPairCount * Integer.BYTES + (tmpCount + 1L) * Integer.BYTES;
+            int[] tmpOffsets = null;
+            int[] tmpNeighbors = null;
+            this.neighborListsStored = tmpRequiredBytes <= this.memoryBudget && 2L * tmpPairCount <= Integer.MAX_VALUE - 8;
+            if (this.neighborListsStored) {
+                int[] tmpRowOffsets = new int[tmpCount + 1];
+                for (int i = 0; i < tmpCount; i++) {
+                    tmpRowOffsets[i + 1] = tmpRowOffsets[i] + tmpDegrees[i];
+                }
+                int[] tmpRowNeighbors = new int[tmpRowOffsets[tmpCount]];
+                //the lower positions of a row are filled by the other rows, the higher ones by the row itself
+                AtomicIntegerArray tmpCursors = new AtomicIntegerArray(tmpCount);
+                tmpPool.invoke(new RowRangeTask(0, tmpCount, aPosition -> {
+                    int tmpEnd = this.getForwardEnd(anIndex, tmpCardinalities.get(aPosition));
+                    int tmpSlot = tmpRowOffsets[aPosition] + tmpBackwardCounts.get(aPosition);
+                    for (int tmpOther = aPosition + 1; tmpOther < tmpEnd; tmpOther++) {
+                        if (anIndex.getSimilarity(aPosition, tmpOther) >= this.threshold) {
+                            tmpRowNeighbors[tmpSlot++] = tmpOther;
+                            tmpRowNeighbors[tmpRowOffsets[tmpOther] + tmpCursors.getAndIncrement(tmpOther)] = aPosition;
+                        }
+                    }
+                }));
+                tmpOffsets = tmpRowOffsets;
+                tmpNeighbors = tmpRowNeighbors;
+            }
+
+            //*assignment*
+            //centroid candidates by descending neighbour count, ties by insertion order
+            long[] tmpOrder = new long[tmpCount];
+            int[] tmpPositions = new int[tmpCount];
+            for (int i = 0; i < tmpCount; i++) {
+                int tmpInsertionIndex = tmpIndices.get(i);
+                tmpPositions[tmpInsertionIndex] = i;
+                tmpOrder[i] = ((long) (Integer.MAX_VALUE - tmpDegrees[i]) << 32) | tmpInsertionIndex;
+            }
+            Arrays.sort(tmpOrder);
+            boolean[] tmpAssigned = new boolean[tmpCount];
+            List<List<SimilarityHit>> tmpClusters = new ArrayList<>();
+            for (long tmpEntry : tmpOrder) {
+                int tmpCentroid = tmpPositions[(int) tmpEntry];
+                if (tmpAssigned[tmpCentroid]) {
+                    continue;
+                }
+                tmpAssigned[tmpCentroid] = true;
+                List<SimilarityHit> tmpMembers = new ArrayList<>();
+                int[] tmpRow;
+                if (tmpDegrees[tmpCentroid] == 0) {
+                    tmpRow = new int[0];
+                } else if (tmpNeighbors != null) {
+                    tmpRow = Arrays.copyOfRange(tmpNeighbors, tmpOffsets[tmpCentroid], tmpOffsets[tmpCentroid + 1]);
+                } else {
+                    tmpRow = this.getNeighbors(anIndex, tmpCardinalities, tmpCentroid);
+                }
+                for (int tmpMember : tmpRow) {
+                    if (!tmpAssigned[tmpMember]) {
+                        tmpAssigned[tmpMember] = true;
+                        tmpMembers.add(new SimilarityHit(tmpIndices.get(tmpMember), anIndex.getIdAt(tmpMember),
+                                anIndex.getSimilarity(tmpCentroid, tmpMember)));
+                    }
+                }
+                Collections.sort(tmpMembers);
+                tmpMembers.add(0, new SimilarityHit(tmpIndices.get(tmpCentroid), anIndex.getIdAt(tmpCentroid), 1.0));
+                tmpClusters.add(tmpMembers);
+            }
+            return tmpClusters;
+        } finally {
+            tmpPool.shutdown();
+        }
+    }
+
+    /**
+     * @return number of neighbour pairs found in the last run
+     */
+    public long getNeighborPairCount() {
+        return this.neighborPairCount;
+    }
+
+    /**
+     * @return true if the neighbour lists of the last run fit into the memory budget and were stored, false if
+     *         they were computed again for every centroid
+     */
+    public boolean isNeighborListsStored() {
+        return this.neighborListsStored;
+    }
+
+    /**
+     * Exclusive end of the positions after a fingerprint of the given cardinality that may reach the threshold.
+     */
+    private int getForwardEnd(FingerprintIndex anIndex, int aCardinality) {
+        //widened by one, the exact score decides
+        return anIndex.lowerBound((int) Math.min(Integer.MAX_VALUE - 1L, (long) Math.ceil(aCardinality / this.threshold) + 1L));
+    }
+
+    /**
+     * Computes the neighbours of the fingerprint at the given position on demand.
+     */
+    private int[] getNeighbors(FingerprintIndex anIndex, IntBuffer aCardinalities, int aPosition) {
+        int tmpCardinality = aCardinalities.get(aPosition);
+        int tmpFrom = anIndex.lowerBound((int) Math.floor(this.threshold * tmpCardinality));
+        int tmpTo = this.getForwardEnd(anIndex, tmpCardinality);
+        int[] tmpRow = new int[16];
+        int tmpFound = 0;
+        for (int tmpOther = tmpFrom; tmpOther < tmpTo; tmpOther++) {
+            if (tmpOther != aPosition && anIndex.getSimilarity(aPosition, tmpOther) >= this.threshold) {
+                if (tmpFound == tmpRow.length) {
+                    tmpRow = Arrays.copyOf(tmpRow, 2 * tmpFound);
+                }
+                tmpRow[tmpFound++] = tmpOther;
+            }
+        }
+        return Arrays.copyOf(tmpRow, tmpFound);
+    }
+}
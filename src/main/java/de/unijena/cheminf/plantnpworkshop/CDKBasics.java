@@ -33,7 +33,6 @@ import org.openscience.cdk.depict.DepictionGenerator;
 import org.openscience.cdk.exception.CDKException;
 import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.interfaces.IChemObjectBuilder;
-import org.openscience.cdk.io.iterator.IteratingSDFReader;
 import org.openscience.cdk.smiles.SmiFlavor;
 import org.openscience.cdk.smiles.SmilesGenerator;
 import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
@@ -43,71 +42,109 @@ public class CDKBasics {
         * 10 randomly selected COCONUT molecules are loaded from the SDF,
         * 'COCONUTset-10.sdf' and their properties are printed.
         *
-        * These molecule depictions are saved on users' desktops.
+        * These molecule depictions are saved on users' desktops by default.
+        * Directory, size, format (PNG/SVG), contact sheets and a zip archive
+        * can be configured, see DepictionRenderer.fromSystemProperties().
         *
         */
 
-       /*
-        * Path is set to the Desktop directory.
-	*/
-
-	public static String path= System.getProperty("user.home")+"\\Desktop\\";
 	public static void main(String[] arguments) throws IOException, CDKException {
 	    // Loading SDF file from resources.
             ClassLoader ClassLoader = DescriptorCalculation.class.getClassLoader();
 	    File SDFile = new File(ClassLoader.getResource("COCONUTset-10.sdf").getFile());
 	    IChemObjectBuilder builder = DefaultChemObjectBuilder.getInstance();
-	    IteratingSDFReader reader = new IteratingSDFReader(new FileInputStream(SDFile), builder, true);
+	    // Records are parsed and processed on a pool of workers and printed in input order; erroneous entries are skipped.
+	    SDFRecordPipeline<Described> pipeline = new SDFRecordPipeline<>(builder,
+		    SDFRecordPipeline.getConfiguredWorkerCount(), 4 * SDFRecordPipeline.getConfiguredWorkerCount());
 
-	    //Constructors: DepictionGenerator, SmilesGenerator.
-	    DepictionGenerator depiction = new DepictionGenerator();
+	    //Constructors: DepictionGenerator, SmilesGenerator. All of them are immutable and shared by the workers.
+	    //User can change depiction settings; the size is set by the renderer (default 1000 x 1000).
+	    DepictionGenerator depiction = new DepictionGenerator().withAtomColors().withCarbonSymbols().withZoom(20);
 	    SmilesGenerator sgUnique = new SmilesGenerator(SmiFlavor.Unique);
 	    SmilesGenerator sgAbsolute = new SmilesGenerator(SmiFlavor.Absolute);
-	    //Defining String variables.
-	    String COCONUT_ID, name, uniqueSMILES, absoluteSMILES;
 
-            //Iterating molecules
-	    while (reader.hasNext()) {
-
-	    	//Getting molecules as IAtomContainers
-		IAtomContainer ac= (IAtomContainer)reader.next();
+	    //Stage timings are logged to System.err with -Dplantnpworkshop.metrics=true.
+	    //Depictions are rendered on their own pool of workers and written in input order.
+	    try (PipelineMetrics metrics = PipelineMetrics.fromSystemProperties();
+		    DepictionRenderer renderer = DepictionRenderer.fromSystemProperties(depiction)) {
+		pipeline.setMetrics(metrics);
+		renderer.setMetrics(metrics);
+                //Iterating molecules
+		pipeline.run(new FileInputStream(SDFile),
+			(ac, index) -> CDKBasics.describe(ac, sgUnique, sgAbsolute, metrics),
+			described -> {
+			    System.out.print(described.report);
+			    renderer.add(described.molecule, described.title);
+			});
+		System.out.println("------------------------------");
+	    }
+	}
+
+	/*
+	 * Describes one molecule and returns its report block together with the unmodified molecule for depiction.
+	 * Called on the worker threads.
+	 */
+	private static Described describe(IAtomContainer ac, SmilesGenerator sgUnique,
+		    SmilesGenerator sgAbsolute, PipelineMetrics metrics) throws CDKException {
+		//Defining String variables.
+		String COCONUT_ID, name, uniqueSMILES, absoluteSMILES;
+		String newLine = System.lineSeparator();
+		StringBuilder out = new StringBuilder();
 
 	  	//Getting its 'Name' and 'COCONUT_ID' properties.
 		name = ac.getProperty("Name").toString();
 		COCONUT_ID = ac.getProperty("COCONUT_ID").toString();
 
-		//Depicting IAtomContainers. User can change depiction settings.
-		depiction.withAtomColors().withCarbonSymbols().withSize(1000, 1000).withZoom(20).depict(ac).writeTo(path+COCONUT_ID+" "+name+".png");
-
 		//Generating SMILES of IAtomContainer
+		long start = metrics.start();
 		uniqueSMILES = sgUnique.create(ac);
 		absoluteSMILES = sgAbsolute.create(ac);
-			
-		System.out.println("------------------------------");
-		System.out.println("COCONUT ID and molecule name: "+COCONUT_ID+" "+name);
-		System.out.println(".......");
-		System.out.println("Unique SMILES: "+uniqueSMILES);
-		System.out.println();
-		System.out.println("Absolute SMILES: "+absoluteSMILES);
-		System.out.println(".......");
+		metrics.record(ProcessingStage.SMILES, start);
+
+		out.append("------------------------------").append(newLine);
+		out.append("COCONUT ID and molecule name: "+COCONUT_ID+" "+name).append(newLine);
+		out.append(".......").append(newLine);
+		out.append("Unique SMILES: "+uniqueSMILES).append(newLine);
+		out.append(newLine);
+		out.append("Absolute SMILES: "+absoluteSMILES).append(newLine);
+		out.append(".......").append(newLine);
 
 		//Calculating the molecular weight.
-		System.out.println(name+"'s molecular weight: "+AtomContainerManipulator.getMolecularWeight(ac));
-		System.out.println(".......");
-			
+		out.append(name+"'s molecular weight: "+AtomContainerManipulator.getMolecularWeight(ac)).append(newLine);
+		out.append(".......").append(newLine);
+
 		//Total number of atoms.
-		System.out.println("Number of atoms: "+ac.getAtomCount());
+		out.append("Number of atoms: "+ac.getAtomCount()).append(newLine);
 
 		//Number of implicit hydrogens.
-		System.out.println("Implicit hydrogen count: "+AtomContainerManipulator.getImplicitHydrogenCount(ac));
+		out.append("Implicit hydrogen count: "+AtomContainerManipulator.getImplicitHydrogenCount(ac)).append(newLine);
 
-		//Converting the implicit hydrogens to explicit hydrogens.
-		AtomContainerManipulator.convertImplicitToExplicitHydrogens(ac);
+		//Converting the implicit hydrogens to explicit hydrogens, on a copy because the molecule is depicted afterwards.
+		IAtomContainer withHydrogens;
+		try {
+			withHydrogens = ac.clone();
+		} catch (CloneNotSupportedException exception) {
+			throw new CDKException("Could not copy molecule.", exception);
+		}
+		AtomContainerManipulator.convertImplicitToExplicitHydrogens(withHydrogens);
 
 		//Number of atoms after the conversion to explicit hydrogens.
-		System.out.println("Number of atoms after hydrogen conversion: "+ac.getAtomCount());
-	   }
-	   System.out.println("------------------------------");
-	   reader.close();
-      }
+		out.append("Number of atoms after hydrogen conversion: "+withHydrogens.getAtomCount()).append(newLine);
+		return new Described(out.toString(), ac, COCONUT_ID+" "+name);
+	}
+
+	/*
+	 * Report block of one molecule, the molecule as read and the title of its depiction.
+	 */
+	private static class Described {
+		private final String report;
+		private final IAtomContainer molecule;
+		private final String title;
+
+		private Described(String report, IAtomContainer molecule, String title) {
+			this.report = report;
+			this.molecule = molecule;
+			this.title = title;
+		}
+	}
 }
@@ -0,0 +1,220 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.aromaticity.Aromaticity;
+import org.openscience.cdk.aromaticity.ElectronDonation;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.fingerprint.CircularFingerprinter;
+import org.openscience.cdk.fingerprint.IBitFingerprint;
+import org.openscience.cdk.fingerprint.PubchemFingerprinter;
+import org.openscience.cdk.graph.Cycles;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.qsar.descriptors.molecular.ALOGPDescriptor;
+import org.openscience.cdk.qsar.descriptors.molecular.PetitjeanNumberDescriptor;
+import org.openscience.cdk.qsar.descriptors.molecular.RuleOfFiveDescriptor;
+import org.openscience.cdk.qsar.descriptors.molecular.ZagrebIndexDescriptor;
+import org.openscience.cdk.smiles.SmiFlavor;
+import org.openscience.cdk.smiles.SmilesGenerator;
+import org.openscience.cdk.smiles.SmilesParser;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Per-thread registry of descriptor, fingerprint, aromaticity and SMILES engines.
+ * <p>
+ * Descriptors and fingerprinters are not guaranteed to be thread-safe, and some of them (ALogP, PubChem) are
+ * expensive to set up. Every thread therefore gets its own registry that constructs and initialises each engine
+ * lazily and only once, and then reuses it for all molecules processed on that thread. Fingerprints of reference
+ * structures given as SMILES are cached as well.
+ */
+public final class CalculatorRegistry {
+    /**
+     * Registries of the current thread, one per chem object builder.
+     */
+    private static final ThreadLocal<Map<IChemObjectBuilder, CalculatorRegistry>> REGISTRIES
+            = ThreadLocal.withInitial(IdentityHashMap::new);
+
+    private final IChemObjectBuilder builder;
+
+    private PetitjeanNumberDescriptor petitjeanNumberDescriptor;
+
+    private ZagrebIndexDescriptor zagrebIndexDescriptor;
+
+    private RuleOfFiveDescriptor ruleOfFiveDescriptor;
+
+    private ALOGPDescriptor aLogPDescriptor;
+
+    private Aromaticity aromaticity;
+
+    private SmilesGenerator uniqueAromaticSmilesGenerator;
+
+    private SmilesParser smilesParser;
+
+    private PubchemFingerprinter pubChemFingerprinter;
+
+    private CircularFingerprinter circularFingerprinter;
+
+    private final Map<String, IBitFingerprint> pubChemReferenceFingerprints = new HashMap<>();
+
+    private final Map<String, IBitFingerprint> circularReferenceFingerprints = new HashMap<>();
+
+    private CalculatorRegistry(IChemObjectBuilder aBuilder) {
+        this.builder = aBuilder;
+    }
+
+    /**
+     * Returns the registry of the calling thread for the given builder. The returned object must not be handed to
+     * other threads.
+     *
+     * @param aBuilder chem object builder the engines are initialised with
+     * @return registry confined to the current thread
+     */
+    public static CalculatorRegistry forCurrentThread(IChemObjectBuilder aBuilder) {
+        return CalculatorRegistry.REGISTRIES.get().computeIfAbsent(aBuilder, CalculatorRegistry::new);
+    }
+
+    public PetitjeanNumberDescriptor getPetitjeanNumberDescriptor() {
+        if (this.petitjeanNumberDescriptor == null) {
+            this.petitjeanNumberDescriptor = new PetitjeanNumberDescriptor();
+            this.petitjeanNumberDescriptor.initialise(this.builder);
+        }
+        return this.petitjeanNumberDescriptor;
+    }
+
+    public ZagrebIndexDescriptor getZagrebIndexDescriptor() {
+        if (this.zagrebIndexDescriptor == null) {
+            this.zagrebIndexDescriptor = new ZagrebIndexDescriptor();
+            this.zagrebIndexDescriptor.initialise(this.builder);
+        }
+        return this.zagrebIndexDescriptor;
+    }
+
+    public RuleOfFiveDescriptor getRuleOfFiveDescriptor() {
+        if (this.ruleOfFiveDescriptor == null) {
+            this.ruleOfFiveDescriptor = new RuleOfFiveDescriptor();
+            this.ruleOfFiveDescriptor.initialise(this.builder);
+        }
+        return this.ruleOfFiveDescriptor;
+    }
+
+    /**
+     * @throws CDKException if the ALogP parameters cannot be loaded
+     */
+    public ALOGPDescriptor getALogPDescriptor() throws CDKException {
+        if (this.aLogPDescriptor == null) {
+            ALOGPDescriptor tmpDescriptor = new ALOGPDescriptor();
+            tmpDescriptor.initialise(this.builder);
+            this.aLogPDescriptor = tmpDescriptor;
+        }
+        return this.aLogPDescriptor;
+    }
+
+    /**
+     * @return aromaticity model constructed from the CDK electron donation model and the CDK aromatic set cycle finder
+     */
+    public Aromaticity getAromaticity() {
+        if (this.aromaticity == null) {
+            this.aromaticity = new Aromaticity(ElectronDonation.cdk(), Cycles.cdkAromaticSet());
+        }
+        return this.aromaticity;
+    }
+
+    /**
+     * @return SMILES generator with the flavor SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols
+     */
+    public SmilesGenerator getUniqueAromaticSmilesGenerator() {
+        if (this.uniqueAromaticSmilesGenerator == null) {
+            this.uniqueAromaticSmilesGenerator = new SmilesGenerator(SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols);
+        }
+        return this.uniqueAromaticSmilesGenerator;
+    }
+
+    public SmilesParser getSmilesParser() {
+        if (this.smilesParser == null) {
+            this.smilesParser = new SmilesParser(this.builder);
+        }
+        return this.smilesParser;
+    }
+
+    public PubchemFingerprinter getPubChemFingerprinter() {
+        if (this.pubChemFingerprinter == null) {
+            this.pubChemFingerprinter = new PubchemFingerprinter(this.builder);
+        }
+        return this.pubChemFingerprinter;
+    }
+
+    /**
+     * @return circular fingerprinter of the default type ECFP6
+     */
+    public CircularFingerprinter getCircularFingerprinter() {
+        if (this.circularFingerprinter == null) {
+            this.circularFingerprinter = new CircularFingerprinter();
+        }
+        return this.circularFingerprinter;
+    }
+
+    /**
+     * Returns the PubChem fingerprint of the given reference structure, calculated on first request only. The
+     * structure is preprocessed like the query molecules (explicit Hs, atom types configured, aromaticity detected).
+     *
+     * @param aSmiles SMILES representation of the reference structure
+     * @return cached fingerprint, must not be modified
+     * @throws CDKException if the SMILES cannot be parsed or fingerprinting fails
+     */
+    public IBitFingerprint getPubChemReferenceFingerprint(String aSmiles) throws CDKException {
+        IBitFingerprint tmpFingerprint = this.pubChemReferenceFingerprints.get(aSmiles);
+        if (tmpFingerprint == null) {
+            IAtomContainer tmpReference = this.getSmilesParser().parseSmiles(aSmiles);
+            AtomContainerManipulator.convertImplicitToExplicitHydrogens(tmpReference);
+            AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(tmpReference);
+            this.getAromaticity().apply(tmpReference);
+            tmpFingerprint = this.getPubChemFingerprinter().getBitFingerprint(tmpReference);
+            this.pubChemReferenceFingerprints.put(aSmiles, tmpFingerprint);
+        }
+        return tmpFingerprint;
+    }
+
+    /**
+     * Returns the circular (ECFP6) fingerprint of the given reference structure, calculated on first request only.
+     *
+     * @param aSmiles SMILES representation of the reference structure
+     * @return cached fingerprint, must not be modified
+     * @throws CDKException if the SMILES cannot be parsed or fingerprinting fails
+     */
+    public IBitFingerprint getCircularReferenceFingerprint(String aSmiles) throws CDKException {
+        IBitFingerprint tmpFingerprint = this.circularReferenceFingerprints.get(aSmiles);
+        if (tmpFingerprint == null) {
+            IAtomContainer tmpReference = this.getSmilesParser().parseSmiles(aSmiles);
+            tmpFingerprint = this.getCircularFingerprinter().getBitFingerprint(tmpReference);
+            this.circularReferenceFingerprints.put(aSmiles, tmpFingerprint);
+        }
+        return tmpFingerprint;
+    }
+}
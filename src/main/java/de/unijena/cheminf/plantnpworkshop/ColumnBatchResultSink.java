@@ -0,0 +1,157 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Base class of result sinks that collect rows in fixed-size column batches of primitive arrays and write a batch
+ * whenever it is full, so memory use does not depend on the number of rows.
+ */
+public abstract class ColumnBatchResultSink implements ResultSink {
+    /**
+     * Default number of rows per batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    /**
+     * Column layout of the rows.
+     */
+    protected final ResultSchema schema;
+
+    /**
+     * COCONUT_IDs of the rows in the current batch.
+     */
+    protected final String[] ids;
+
+    /**
+     * Names of the rows in the current batch.
+     */
+    protected final String[] names;
+
+    /**
+     * Double columns of the current batch, indexed by column and row.
+     */
+    protected final double[][] doubleColumns;
+
+    /**
+     * Int columns of the current batch, indexed by column and row.
+     */
+    protected final int[][] intColumns;
+
+    private int rowCount;
+
+    private boolean headerWritten;
+
+    private boolean closed;
+
+    /**
+     * @param aSchema column layout of the rows
+     * @param aBatchSize number of rows collected before they are written
+     * @throws IllegalArgumentException if the batch size is not positive
+     */
+    protected ColumnBatchResultSink(ResultSchema aSchema, int aBatchSize) {
+        if (aBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        this.schema = aSchema;
+        this.ids = new String[aBatchSize];
+        this.names = new String[aBatchSize];
+        this.doubleColumns = new double[aSchema.getDoubleColumnCount()][aBatchSize];
+        this.intColumns = new int[aSchema.getIntColumnCount()][aBatchSize];
+    }
+
+    @Override
+    public void write(ResultRow aRow) throws IOException {
+        int tmpRow = this.rowCount;
+        this.ids[tmpRow] = aRow.getId();
+        this.names[tmpRow] = aRow.getName();
+        for (int i = 0; i < this.doubleColumns.length; i++) {
+            this.doubleColumns[i][tmpRow] = aRow.getDouble(i);
+        }
+        for (int i = 0; i < this.intColumns.length; i++) {
+            this.intColumns[i][tmpRow] = aRow.getInt(i);
+        }
+        this.rowCount++;
+        if (this.rowCount == this.ids.length) {
+            this.flushBatch();
+        }
+    }
+
+    /**
+     * Writes the last, possibly partial batch and closes the output.
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.flushBatch();
+        } finally {
+            this.closeOutput();
+        }
+    }
+
+    /**
+     * Writes the header before the first batch.
+     *
+     * @throws IOException if writing fails
+     */
+    protected abstract void writeHeader() throws IOException;
+
+    /**
+     * Writes the first rows of the current batch.
+     *
+     * @param aRowCount number of filled rows, between 1 and the batch size
+     * @throws IOException if writing fails
+     */
+    protected abstract void writeBatch(int aRowCount) throws IOException;
+
+    /**
+     * Flushes and closes the underlying output.
+     *
+     * @throws IOException if closing fails
+     */
+    protected abstract void closeOutput() throws IOException;
+
+    private void flushBatch() throws IOException {
+        if (!this.headerWritten) {
+            this.writeHeader();
+            this.headerWritten = true;
+        }
+        if (this.rowCount > 0) {
+            this.writeBatch(this.rowCount);
+            //drop references to the strings of the written batch
+            Arrays.fill(this.ids, 0, this.rowCount, null);
+            Arrays.fill(this.names, 0, this.rowCount, null);
+            this.rowCount = 0;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes result rows as comma- or tab-separated text with a header line. Numbers are written with full precision,
+ * '.' as decimal separator and without grouping, independent of the default locale, so the file can be parsed back.
+ * Text fields are quoted (CSV) or have their tabs and line breaks replaced by spaces (TSV) where necessary.
+ */
+public class DelimitedTextResultSink extends ColumnBatchResultSink {
+    private final Writer writer;
+
+    private final char separator;
+
+    /**
+     * Reused for formatting a whole batch before it is handed to the writer.
+     */
+    private final StringBuilder buffer = new StringBuilder(1 << 16);
+
+    /**
+     * @param aFile output file, overwritten if it exists
+     * @param aSchema column layout of the rows
+     * @param aSeparator ',' for CSV or '\t' for TSV
+     * @throws IOException if the file cannot be created
+     */
+    public DelimitedTextResultSink(File aFile, ResultSchema aSchema, char aSeparator) throws IOException {
+        this(new OutputStreamWriter(new FileOutputStream(aFile), StandardCharsets.UTF_8), aSchema, aSeparator,
+                ColumnBatchResultSink.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param aWriter destination, it is closed when this sink is closed
+     * @param aSchema column layout of the rows
+     * @param aSeparator ',' for CSV or '\t' for TSV
+     * @param aBatchSize number of rows formatted and written at once
+     */
+    public DelimitedTextResultSink(Writer aWriter, ResultSchema aSchema, char aSeparator, int aBatchSize) {
+        super(aSchema, aBatchSize);
+        this.writer = new BufferedWriter(aWriter, 1 << 16);
+        this.separator = aSeparator;
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        StringBuilder tmpLine = this.buffer;
+        this.appendText(tmpLine, "COCONUT_ID").append(this.separator);
+        this.appendText(tmpLine, "Name");
+        for (int i = 0; i < this.schema.getDoubleColumnCount(); i++) {
+            this.appendText(tmpLine.append(this.separator), this.schema.getDoubleColumnName(i));
+        }
+        for (int i = 0; i < this.schema.getIntColumnCount(); i++) {
+            this.appendText(tmpLine.append(this.separator), this.schema.getIntColumnName(i));
+        }
+        tmpLine.append('\n');
+        this.writeBuffer();
+    }
+
+    @Override
+    protected void writeBatch(int aRowCount) throws IOException {
+        StringBuilder tmpLines = this.buffer;
+        for (int tmpRow = 0; tmpRow < aRowCount; tmpRow++) {
+            this.appendText(tmpLines, this.ids[tmpRow]).append(this.separator);
+            this.appendText(tmpLines, this.names[tmpRow]);
+            for (double[] tmpColumn : this.doubleColumns) {
+                //StringBuilder.append(double) is locale-independent and does not box
+                tmpLines.append(this.separator).append(tmpColumn[tmpRow]);
+            }
+            for (int[] tmpColumn : this.intColumns) {
+                tmpLines.append(this.separator).append(tmpColumn[tmpRow]);
+            }
+            tmpLines.append('\n');
+        }
+        this.writeBuffer();
+    }
+
+    @Override
+    protected void closeOutput() throws IOException {
+        this.writer.close();
+    }
+
+    private void writeBuffer() throws IOException {
+        this.writer.append(this.buffer);
+        this.buffer.setLength(0);
+    }
+
+    /**
+     * Appends a text field, null is written as an empty field.
+     */
+    private StringBuilder appendText(StringBuilder aBuilder, String aText) {
+        if (aText == null) {
+            return aBuilder;
+        }
+        if (this.separator == '\t') {
+            for (int i = 0; i < aText.length(); i++) {
+                char tmpChar = aText.charAt(i);
+                aBuilder.append(tmpChar == '\t' || tmpChar == '\n' || tmpChar == '\r' ? ' ' : tmpChar);
+            }
+            return aBuilder;
+        }
+        boolean tmpQuote = false;
+        for (int i = 0; i < aText.length() && !tmpQuote; i++) {
+            char tmpChar = aText.charAt(i);
+            tmpQuote = tmpChar == this.separator || tmpChar == '"' || tmpChar == '\n' || tmpChar == '\r';
+        }
+        if (!tmpQuote) {
+            return aBuilder.append(aText);
+        }
+        aBuilder.append('"');
+        for (int i = 0; i < aText.length(); i++) {
+            char tmpChar = aText.charAt(i);
+            if (tmpChar == '"') {
+                aBuilder.append('"');
+            }
+            aBuilder.append(tmpChar);
+        }
+        return aBuilder.append('"');
+    }
+}
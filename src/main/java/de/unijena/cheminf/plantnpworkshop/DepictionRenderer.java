@@ -0,0 +1,354 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.CDKConstants;
+import org.openscience.cdk.depict.Depiction;
+import org.openscience.cdk.depict.DepictionGenerator;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Batch depiction of molecules into PNG or SVG images, either one image per molecule or contact sheets showing a
+ * grid of molecules, written as separate files or into a single zip archive.
+ * <p>
+ * Molecules are passed in input order from one thread. Rendering runs on a pool of worker threads that share one
+ * immutable {@link DepictionGenerator} configuration; the rendered images are written by the calling thread in
+ * input order. At most 'capacity' images are rendered but not yet written, so memory stays bounded however many
+ * molecules are depicted.
+ */
+public final class DepictionRenderer implements Closeable {
+    /**
+     * Supported image formats.
+     */
+    public enum Format {
+        PNG(Depiction.PNG_FMT),
+        SVG(Depiction.SVG_FMT);
+
+        private final String depictionFormat;
+
+        Format(String aDepictionFormat) {
+            this.depictionFormat = aDepictionFormat;
+        }
+
+        /**
+         * @return file name extension, also the format name used by {@link Depiction#writeTo(String, OutputStream)}
+         */
+        public String getExtension() {
+            return this.depictionFormat;
+        }
+    }
+
+    /**
+     * Name of the archive created in the output directory if images are written to a zip archive.
+     */
+    public static final String ARCHIVE_FILE_NAME = "depictions.zip";
+
+    private final DepictionGenerator generator;
+
+    /**
+     * Generator for single-molecule images, with the size applied.
+     */
+    private final DepictionGenerator singleGenerator;
+
+    private final Path directory;
+
+    private final Format format;
+
+    private final int size;
+
+    private final int sheetSize;
+
+    private final ZipOutputStream archive;
+
+    private final ExecutorService workers;
+
+    private final int capacity;
+
+    private final Queue<Future<RenderedImage>> pending = new ArrayDeque<>();
+
+    private List<IAtomContainer> sheet;
+
+    private int sheetCount;
+
+    private long moleculeCount;
+
+    private long imageCount;
+
+    private PipelineMetrics metrics = PipelineMetrics.disabled();
+
+    /**
+     * @param aGenerator depiction settings, the size is overridden
+     * @param aDirectory output directory, created if it does not exist
+     * @param aFormat image format
+     * @param aSize width and height in pixels of one molecule, also of one grid cell of a contact sheet
+     * @param aSheetSize number of molecules per image, 1 for one image per molecule
+     * @param anArchive true to write all images into one zip archive in the output directory
+     * @param aWorkerCount number of rendering threads
+     * @throws IOException if the output directory or archive cannot be created
+     */
+    public DepictionRenderer(DepictionGenerator aGenerator, Path aDirectory, Format aFormat, int aSize, int aSheetSize,
+            boolean anArchive, int aWorkerCount) throws IOException {
+        if (aSize < 1 || aSheetSize < 1 || aWorkerCount < 1) {
+            throw new IllegalArgumentException("Size, sheet size and worker count must be positive.");
+        }
+        this.generator = aGenerator;
+        this.singleGenerator = aGenerator.withSize(aSize, aSize);
+        this.directory = aDirectory;
+        this.format = aFormat;
+        this.size = aSize;
+        this.sheetSize = aSheetSize;
+        this.capacity = 4 * aWorkerCount;
+        this.sheet = new ArrayList<>(aSheetSize);
+        Files.createDirectories(aDirectory);
+        this.archive = anArchive
+                ? new ZipOutputStream(Files.newOutputStream(aDirectory.resolve(DepictionRenderer.ARCHIVE_FILE_NAME)))
+                : null;
+        AtomicInteger tmpThreadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(aWorkerCount, aRunnable -> {
+            Thread tmpThread = new Thread(aRunnable, "depiction-worker-" + tmpThreadNumber.incrementAndGet());
+            tmpThread.setDaemon(true);
+            return tmpThread;
+        });
+    }
+
+    /**
+     * Creates a renderer configured by the system properties
+     * <ul>
+     *     <li>'plantnpworkshop.depiction.dir': output directory, default: Desktop directory in the user home</li>
+     *     <li>'plantnpworkshop.depiction.format': 'png' (default) or 'svg'</li>
+     *     <li>'plantnpworkshop.depiction.size': pixels per molecule, default 1000</li>
+     *     <li>'plantnpworkshop.depiction.sheet': molecules per contact sheet, default 1 (no sheets)</li>
+     *     <li>'plantnpworkshop.depiction.zip': true to write a single zip archive instead of separate files</li>
+     * </ul>
+     * and rendering on as many threads as configured for the SDF record pipeline.
+     *
+     * @param aGenerator depiction settings, the size is overridden
+     * @return the renderer
+     * @throws IOException if the output directory or archive cannot be created
+     */
+    public static DepictionRenderer fromSystemProperties(DepictionGenerator aGenerator) throws IOException {
+        String tmpDirectory = System.getProperty("plantnpworkshop.depiction.dir");
+        Path tmpPath = tmpDirectory != null ? Path.of(tmpDirectory) : Path.of(System.getProperty("user.home"), "Desktop");
+        Format tmpFormat = Format.valueOf(System.getProperty("plantnpworkshop.depiction.format", "png").toUpperCase(Locale.ROOT));
+        return new DepictionRenderer(aGenerator, tmpPath, tmpFormat,
+                Integer.getInteger("plantnpworkshop.depiction.size", 1000),
+                Integer.getInteger("plantnpworkshop.depiction.sheet", 1),
+                Boolean.getBoolean("plantnpworkshop.depiction.zip"),
+                SDFRecordPipeline.getConfiguredWorkerCount());
+    }
+
+    /**
+     * Adds a molecule to depict. The molecule must not be modified afterwards, it is rendered asynchronously.
+     *
+     * @param aMolecule the molecule
+     * @param aName used as title on a contact sheet and, after the number of the molecule, e.g. '000001-', as file
+     *              name of a single-molecule image, so molecules of the same name get different files
+     * @throws IOException if writing a previously rendered image fails
+     * @throws CDKException if rendering a previously added molecule failed
+     */
+    public void add(IAtomContainer aMolecule, String aName) throws IOException, CDKException {
+        this.moleculeCount++;
+        if (this.sheetSize == 1) {
+            this.submit(List.of(aMolecule), String.format(Locale.ROOT, "%06d-%s", this.moleculeCount,
+                    DepictionRenderer.toFileName(aName)));
+            return;
+        }
+        //the title is set on a shallow copy sharing atoms and bonds, so the caller's molecule stays unchanged
+        IAtomContainer tmpTitled = aMolecule.getBuilder().newInstance(IAtomContainer.class, aMolecule);
+        tmpTitled.setProperty(CDKConstants.TITLE, aName);
+        this.sheet.add(tmpTitled);
+        if (this.sheet.size() == this.sheetSize) {
+            this.submitSheet();
+        }
+    }
+
+    /**
+     * Sets the metrics that the rendering time of every image is reported to as {@link ProcessingStage#DEPICTION}.
+     *
+     * @param aMetrics the metrics, disabled by default
+     */
+    public void setMetrics(PipelineMetrics aMetrics) {
+        this.metrics = aMetrics;
+    }
+
+    /**
+     * @return number of images written so far
+     */
+    public long getImageCount() {
+        return this.imageCount;
+    }
+
+    /**
+     * Renders the last, possibly partial contact sheet, writes all pending images and closes the archive.
+     *
+     * @throws IOException if writing fails or rendering failed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!this.sheet.isEmpty()) {
+                this.submitSheet();
+            }
+            while (!this.pending.isEmpty()) {
+                this.writeNext();
+            }
+        } catch (CDKException anException) {
+            throw new IOException("Depiction failed.", anException);
+        } finally {
+            this.workers.shutdownNow();
+            if (this.archive != null) {
+                this.archive.close();
+            }
+        }
+    }
+
+    private void submitSheet() throws IOException, CDKException {
+        List<IAtomContainer> tmpSheet = this.sheet;
+        this.sheet = new ArrayList<>(this.sheetSize);
+        this.sheetCount++;
+        this.submit(tmpSheet, String.format(Locale.ROOT, "sheet-%06d", this.sheetCount));
+    }
+
+    /**
+     * Submits rendering of one image, writing the oldest pending image first if the capacity is reached.
+     */
+    private void submit(List<IAtomContainer> aMolecules, String aBaseName) throws IOException, CDKException {
+        while (this.pending.size() >= this.capacity) {
+            this.writeNext();
+        }
+        String tmpFileName = aBaseName + "." + this.format.getExtension();
+        this.pending.add(this.workers.submit(() -> new RenderedImage(tmpFileName, this.render(aMolecules))));
+    }
+
+    /**
+     * Renders one molecule or a grid of molecules with as many columns as rows or one more.
+     */
+    private byte[] render(List<IAtomContainer> aMolecules) throws CDKException, IOException {
+        long tmpStart = this.metrics.start();
+        Depiction tmpDepiction;
+        if (this.sheetSize == 1) {
+            tmpDepiction = this.singleGenerator.depict(aMolecules.get(0));
+        } else {
+            int tmpColumns = (int) Math.ceil(Math.sqrt(this.sheetSize));
+            int tmpRows = (aMolecules.size() + tmpColumns - 1) / tmpColumns;
+            tmpDepiction = this.generator.withMolTitle().withSize(tmpColumns * this.size, tmpRows * this.size)
+                    .depict(aMolecules, tmpRows, tmpColumns);
+        }
+        ByteArrayOutputStream tmpImage = new ByteArrayOutputStream(1 << 16);
+        tmpDepiction.writeTo(this.format.getExtension(), tmpImage);
+        this.metrics.record(ProcessingStage.DEPICTION, tmpStart);
+        return tmpImage.toByteArray();
+    }
+
+    /**
+     * Waits for the oldest pending image and writes it.
+     */
+    private void writeNext() throws IOException, CDKException {
+        RenderedImage tmpImage;
+        try {
+            tmpImage = this.pending.remove().get();
+        } catch (InterruptedException anException) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a depiction.", anException);
+        } catch (ExecutionException anException) {
+            Throwable tmpCause = anException.getCause();
+            if (tmpCause instanceof CDKException) {
+                throw (CDKException) tmpCause;
+            } else if (tmpCause instanceof IOException) {
+                throw (IOException) tmpCause;
+            } else if (tmpCause instanceof RuntimeException) {
+                throw (RuntimeException) tmpCause;
+            } else if (tmpCause instanceof Error) {
+                throw (Error) tmpCause;
+            }
+            throw new CDKException("Depiction failed.", tmpCause);
+        }
+        if (this.archive == null) {
+            Files.write(this.directory.resolve(tmpImage.fileName), tmpImage.data);
+        } else {
+            ZipEntry tmpEntry = new ZipEntry(tmpImage.fileName);
+            if (this.format == Format.PNG) {
+                //PNG data is compressed already, stored entries need size and checksum up front
+                CRC32 tmpChecksum = new CRC32();
+                tmpChecksum.update(tmpImage.data);
+                tmpEntry.setMethod(ZipEntry.STORED);
+                tmpEntry.setSize(tmpImage.data.length);
+                tmpEntry.setCrc(tmpChecksum.getValue());
+            }
+            this.archive.putNextEntry(tmpEntry);
+            this.archive.write(tmpImage.data);
+            this.archive.closeEntry();
+        }
+        this.imageCount++;
+    }
+
+    /**
+     * Replaces characters that are not allowed or awkward in file names on common file systems.
+     */
+    static String toFileName(String aName) {
+        StringBuilder tmpFileName = new StringBuilder(aName.length());
+        for (int i = 0; i < aName.length(); i++) {
+            char tmpChar = aName.charAt(i);
+            boolean tmpAllowed = Character.isLetterOrDigit(tmpChar) || " -_.,()[]+".indexOf(tmpChar) >= 0;
+            tmpFileName.append(tmpAllowed ? tmpChar : '_');
+        }
+        return tmpFileName.toString();
+    }
+
+    /**
+     * Encoded image and the name it is written under.
+     */
+    private static final class RenderedImage {
+        private final String fileName;
+
+        private final byte[] data;
+
+        private RenderedImage(String aFileName, byte[] aData) {
+            this.fileName = aFileName;
+            this.data = aData;
+        }
+    }
+}
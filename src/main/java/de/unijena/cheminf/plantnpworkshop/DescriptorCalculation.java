@@ -25,13 +25,9 @@
 package de.unijena.cheminf.plantnpworkshop;
 
 import org.openscience.cdk.DefaultChemObjectBuilder;
-import org.openscience.cdk.aromaticity.Aromaticity;
-import org.openscience.cdk.aromaticity.ElectronDonation;
 import org.openscience.cdk.exception.CDKException;
-import org.openscience.cdk.graph.Cycles;
 import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.interfaces.IChemObjectBuilder;
-import org.openscience.cdk.io.iterator.IteratingSDFReader;
 import org.openscience.cdk.qsar.DescriptorValue;
 import org.openscience.cdk.qsar.descriptors.molecular.ALOGPDescriptor;
 import org.openscience.cdk.qsar.descriptors.molecular.PetitjeanNumberDescriptor;
@@ -40,11 +36,10 @@ import org.openscience.cdk.qsar.descriptors.molecular.ZagrebIndexDescriptor;
 import org.openscience.cdk.qsar.result.DoubleArrayResult;
 import org.openscience.cdk.qsar.result.DoubleResult;
 import org.openscience.cdk.qsar.result.IntegerResult;
-import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 /**
  * Demo class for calculating selected descriptors using CDK.
@@ -58,73 +53,163 @@ import java.io.FileNotFoundException;
 public class DescriptorCalculation {
     /**
      * COCONUT subset molecules are loaded from SD file and their ALogP, Petitjean number, Zagreb index, and Lipinski
-     * Rule of 5 violation values calculated and printed to console.
+     * Rule of 5 violation values calculated and printed to console (or written to the file given by the system
+     * property 'plantnpworkshop.output', see {@link ResultSink#fromSystemProperties(ResultSchema)}).
      *
      * @param args the command line arguments (none required)
      */
-    public static void main(String[] args) throws FileNotFoundException, CDKException {
+    public static void main(String[] args) throws IOException, CDKException {
 
         //*loading SD file from resources*
         File tmpSDFile = new File("src/main/resources/COCONUTset-10.sdf");
         //a factory class to provide implementation independent ICDKObjects, needed for SDF parsing
         IChemObjectBuilder tmpBuilder = DefaultChemObjectBuilder.getInstance();
-        //skip: true -> erroneous entries will be skipped
-        IteratingSDFReader tmpReader = new IteratingSDFReader(new FileInputStream(tmpSDFile), tmpBuilder, true);
+        //records are split by one reader thread, parsed and processed on a pool of workers, and consumed in input order
+        //erroneous entries will be skipped
+        SDFRecordPipeline<ResultRow> tmpPipeline = new SDFRecordPipeline<>(tmpBuilder,
+                SDFRecordPipeline.getConfiguredWorkerCount(), 4 * SDFRecordPipeline.getConfiguredWorkerCount());
+        ResultSchema tmpSchema = DescriptorCalculation.createSchema(CalculatorRegistry.forCurrentThread(tmpBuilder));
 
-        //*iterating molecules in file*
-        while(tmpReader.hasNext()) {
-            IAtomContainer tmpMolecule = tmpReader.next();
-            //reading attributes of molecules stored in SDF, they are added as properties to the atom container automatically
-            String tmpCOCONUTID = tmpMolecule.getProperty("COCONUT_ID");
-            String tmpName = tmpMolecule.getProperty("Name");
-            System.out.println("\n" + tmpName + " (" + tmpCOCONUTID + ")");
+        //results of unchanged molecules are taken from the cache file given by -Dplantnpworkshop.cache=<file>, if any
+        //results are printed to console or, with -Dplantnpworkshop.output=<file>, written to a CSV, TSV or columnar file
+        //stage timings are logged to System.err with -Dplantnpworkshop.metrics=true
+        try (PipelineMetrics tmpMetrics = PipelineMetrics.fromSystemProperties();
+                ResultCache tmpCache = ResultCache.fromSystemProperties();
+                ResultSink tmpSink = ResultSink.fromSystemProperties(tmpSchema)) {
+            tmpPipeline.setMetrics(tmpMetrics);
+            //*iterating molecules in file*
+            tmpPipeline.run(new FileInputStream(tmpSDFile),
+                    (aMolecule, anIndex) -> DescriptorCalculation.calculateDescriptors(aMolecule, tmpBuilder, tmpCache, tmpMetrics),
+                    tmpSink != null ? tmpSink::write
+                            : aRow -> System.out.print(DescriptorCalculation.report(aRow, tmpSchema)));
+            if (tmpCache.isEnabled()) {
+                System.out.println("\n" + tmpCache.getStatistics());
+            }
+        }
+    } //end of main()
+
+    /**
+     * Creates the column layout of the descriptor results: Petitjean number, Zagreb index and the three ALogP values
+     * as double columns, Lipinski Rule of 5 failures as int column.
+     *
+     * @param aRegistry registry providing the descriptors and their value names
+     * @return column layout
+     * @throws CDKException if the ALogP descriptor cannot be initialised
+     */
+    static ResultSchema createSchema(CalculatorRegistry aRegistry) throws CDKException {
+        String[] tmpALogPNames = aRegistry.getALogPDescriptor().getDescriptorNames();
+        String[] tmpDoubleColumnNames = new String[2 + tmpALogPNames.length];
+        tmpDoubleColumnNames[0] = aRegistry.getPetitjeanNumberDescriptor().getDescriptorNames()[0];
+        tmpDoubleColumnNames[1] = aRegistry.getZagrebIndexDescriptor().getDescriptorNames()[0];
+        System.arraycopy(tmpALogPNames, 0, tmpDoubleColumnNames, 2, tmpALogPNames.length);
+        return new ResultSchema(tmpDoubleColumnNames,
+                new String[] {aRegistry.getRuleOfFiveDescriptor().getDescriptorNames()[0]});
+    }
 
-            //*Petitjean number calculation*
-            PetitjeanNumberDescriptor tmpPetitjeanNumberDescriptor = new PetitjeanNumberDescriptor();
-            //initialise the descriptor with the specified chem object builder
-            tmpPetitjeanNumberDescriptor.initialise(tmpBuilder);
-            DescriptorValue tmpPetitjeanNumberValue = tmpPetitjeanNumberDescriptor.calculate(tmpMolecule);
+    /**
+     * Formats the descriptor values of one molecule for the console.
+     *
+     * @param aRow descriptor values laid out as described by {@link #createSchema(CalculatorRegistry)}
+     * @param aSchema the column layout
+     * @return console output for the molecule
+     */
+    private static String report(ResultRow aRow, ResultSchema aSchema) {
+        StringBuilder tmpOutput = new StringBuilder();
+        tmpOutput.append("\n" + aRow.getName() + " (" + aRow.getId() + ")").append(System.lineSeparator());
+        for (int i = 0; i < 2; i++) {
+            tmpOutput.append("\t" + aSchema.getDoubleColumnName(i) + ": " + String.format("%,.2f", aRow.getDouble(i))).append(System.lineSeparator());
+        }
+        tmpOutput.append("\t" + aSchema.getIntColumnName(0) + ": " + aRow.getInt(0)).append(System.lineSeparator());
+        for (int i = 2; i < aSchema.getDoubleColumnCount(); i++) {
+            tmpOutput.append("\t" + aSchema.getDoubleColumnName(i) + ": " + String.format("%,.2f", aRow.getDouble(i))).append(System.lineSeparator());
+        }
+        return tmpOutput.toString();
+    }
+
+    /**
+     * Calculates the descriptors of one molecule.
+     *
+     * @param aMolecule the molecule, it is modified during preprocessing
+     * @param aBuilder chem object builder the descriptors are initialised with
+     * @param aCache cache of descriptor values, possibly disabled
+     * @param aMetrics receives the durations of the preprocessing and descriptor stages, possibly disabled
+     * @return descriptor values laid out as described by {@link #createSchema(CalculatorRegistry)}
+     * @throws CDKException if a descriptor calculation fails
+     */
+    static ResultRow calculateDescriptors(IAtomContainer aMolecule, IChemObjectBuilder aBuilder,
+            ResultCache aCache, PipelineMetrics aMetrics) throws CDKException {
+        //descriptors and aromaticity model are constructed and initialised only once per worker thread
+        CalculatorRegistry tmpRegistry = CalculatorRegistry.forCurrentThread(aBuilder);
+        //reading attributes of molecules stored in SDF, they are added as properties to the atom container automatically
+        String tmpCOCONUTID = aMolecule.getProperty("COCONUT_ID");
+        String tmpName = aMolecule.getProperty("Name");
+        //the structure key must be created before the molecule is preprocessed in place
+        String tmpStructureKey = aCache.createStructureKey(aMolecule);
+        //*preprocessing*
+        //every descriptor declares the molecule form it needs: Petitjean, Zagreb and Rule of 5 work on the
+        //hydrogen-suppressed form, ALogP needs explicit Hs; atom types and aromaticity are perceived only once and
+        //only when a descriptor value is not found in the cache
+        PreparedMolecule tmpPrepared = PreparedMolecule.forCalculators(aMolecule, tmpRegistry,
+                MoleculeCalculator.PETITJEAN_NUMBER, MoleculeCalculator.ZAGREB_INDEX, MoleculeCalculator.RULE_OF_FIVE,
+                MoleculeCalculator.ALOGP);
+        tmpPrepared.setMetrics(aMetrics);
+
+        //*Petitjean number calculation*
+        //the registry initialises the descriptor with the specified chem object builder
+        PetitjeanNumberDescriptor tmpPetitjeanNumberDescriptor = tmpRegistry.getPetitjeanNumberDescriptor();
+        double[] tmpPetitjeanNumberResult = aCache.getDoubles(MoleculeCalculator.PETITJEAN_NUMBER, tmpStructureKey, () -> {
+            //preprocessing is timed separately, when it is triggered by getFor() on first request
+            IAtomContainer tmpInput = tmpPrepared.getFor(MoleculeCalculator.PETITJEAN_NUMBER);
+            long tmpStart = aMetrics.start();
+            DescriptorValue tmpValue = tmpPetitjeanNumberDescriptor.calculate(tmpInput);
+            aMetrics.record(ProcessingStage.PETITJEAN_NUMBER, tmpStart);
             //DescriptorValue.getValue() returns an object implementing IDescriptorResult in general
-            DoubleResult tmpPetitjeanNumberResult = (DoubleResult) tmpPetitjeanNumberValue.getValue();
-            System.out.println("\t" + tmpPetitjeanNumberValue.getNames()[0] + ": " + String.format("%,.2f", tmpPetitjeanNumberResult.doubleValue()));
+            return new double[] {((DoubleResult) tmpValue.getValue()).doubleValue()};
+        });
 
-            //*Zagreb index calculation*
-            ZagrebIndexDescriptor tmpZagrebIndexDescriptor = new ZagrebIndexDescriptor();
-            tmpZagrebIndexDescriptor.initialise(tmpBuilder);
-            DescriptorValue tmpZagrebIndexValue = tmpZagrebIndexDescriptor.calculate(tmpMolecule);
-            DoubleResult tmpZagrebIndexResult = (DoubleResult) tmpZagrebIndexValue.getValue();
-            System.out.println("\t" + tmpZagrebIndexValue.getNames()[0] + ": " + String.format("%,.2f", tmpZagrebIndexResult.doubleValue()));
+        //*Zagreb index calculation*
+        ZagrebIndexDescriptor tmpZagrebIndexDescriptor = tmpRegistry.getZagrebIndexDescriptor();
+        double[] tmpZagrebIndexResult = aCache.getDoubles(MoleculeCalculator.ZAGREB_INDEX, tmpStructureKey, () -> {
+            IAtomContainer tmpInput = tmpPrepared.getFor(MoleculeCalculator.ZAGREB_INDEX);
+            long tmpStart = aMetrics.start();
+            DescriptorValue tmpValue = tmpZagrebIndexDescriptor.calculate(tmpInput);
+            aMetrics.record(ProcessingStage.ZAGREB_INDEX, tmpStart);
+            return new double[] {((DoubleResult) tmpValue.getValue()).doubleValue()};
+        });
 
-            //*Lipinski Rule of 5 failures calculation*
-            //preprocessing required: detection of aromaticity
-            //aromaticity model is constructed from electron donation model and cycle finder
-            Aromaticity tmpAromaticity = new Aromaticity(ElectronDonation.cdk(), Cycles.cdkAromaticSet());
-            //for detection of aromaticity, atom types must be set
-            AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(tmpMolecule);
-            tmpAromaticity.apply(tmpMolecule);
-            RuleOfFiveDescriptor tmpRuleOfFiveDescriptor = new RuleOfFiveDescriptor();
-            tmpRuleOfFiveDescriptor.initialise(tmpBuilder);
-            DescriptorValue tmpRuleOfFiveValue = tmpRuleOfFiveDescriptor.calculate(tmpMolecule);
-            IntegerResult tmpRuleOfFiveResult = (IntegerResult) tmpRuleOfFiveValue.getValue();
-            System.out.println("\t" + tmpRuleOfFiveValue.getNames()[0] + ": " + tmpRuleOfFiveResult.intValue());
+        //*Lipinski Rule of 5 failures calculation*
+        //preprocessing required: detection of aromaticity (for which atom types must be set), done by the preprocessing stage
+        RuleOfFiveDescriptor tmpRuleOfFiveDescriptor = tmpRegistry.getRuleOfFiveDescriptor();
+        double[] tmpRuleOfFiveResult = aCache.getDoubles(MoleculeCalculator.RULE_OF_FIVE, tmpStructureKey, () -> {
+            IAtomContainer tmpInput = tmpPrepared.getFor(MoleculeCalculator.RULE_OF_FIVE);
+            long tmpStart = aMetrics.start();
+            DescriptorValue tmpValue = tmpRuleOfFiveDescriptor.calculate(tmpInput);
+            aMetrics.record(ProcessingStage.RULE_OF_FIVE, tmpStart);
+            return new double[] {((IntegerResult) tmpValue.getValue()).intValue()};
+        });
 
-            //*ALogP calculation*
-            //preprocessing required: Hs must be explicit and aromaticity detected
-            AtomContainerManipulator.convertImplicitToExplicitHydrogens(tmpMolecule);
-            //(done again because of now explicit Hs)
-            AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(tmpMolecule);
-            tmpAromaticity.apply(tmpMolecule);
-            ALOGPDescriptor tmpALogPDescriptor = new ALOGPDescriptor();
-            tmpALogPDescriptor.initialise(tmpBuilder);
-            //calculates 3 values: ALogP (Ghose-Crippen LogKow), ALogP2, amr (molar refractivity)
-            DescriptorValue tmpALogPValue = tmpALogPDescriptor.calculate(tmpMolecule);
-            String[] tmpALogPNames = tmpALogPValue.getNames();
+        //*ALogP calculation*
+        //preprocessing required: Hs must be explicit and aromaticity detected, done by the preprocessing stage
+        ALOGPDescriptor tmpALogPDescriptor = tmpRegistry.getALogPDescriptor();
+        //calculates 3 values: ALogP (Ghose-Crippen LogKow), ALogP2, amr (molar refractivity)
+        double[] tmpALogPResults = aCache.getDoubles(MoleculeCalculator.ALOGP, tmpStructureKey, () -> {
+            IAtomContainer tmpInput = tmpPrepared.getFor(MoleculeCalculator.ALOGP);
+            long tmpStart = aMetrics.start();
+            DescriptorValue tmpValue = tmpALogPDescriptor.calculate(tmpInput);
+            aMetrics.record(ProcessingStage.ALOGP, tmpStart);
             //result type is an array of 3 doubles
-            DoubleArrayResult tmpALogPResults = (DoubleArrayResult) tmpALogPValue.getValue();
-            //iterating the 3 calculated values
-            for (int i = 0; i < tmpALogPNames.length; i++) {
-                System.out.println("\t" + tmpALogPNames[i] + ": " + String.format("%,.2f", tmpALogPResults.get(i)));
+            DoubleArrayResult tmpResults = (DoubleArrayResult) tmpValue.getValue();
+            double[] tmpValues = new double[tmpResults.length()];
+            for (int i = 0; i < tmpValues.length; i++) {
+                tmpValues[i] = tmpResults.get(i);
             }
-        } //end of while()
-    } //end of main()
+            return tmpValues;
+        });
+        //*collecting the values in the column layout*
+        double[] tmpDoubleValues = new double[2 + tmpALogPResults.length];
+        tmpDoubleValues[0] = tmpPetitjeanNumberResult[0];
+        tmpDoubleValues[1] = tmpZagrebIndexResult[0];
+        System.arraycopy(tmpALogPResults, 0, tmpDoubleValues, 2, tmpALogPResults.length);
+        return new ResultRow(tmpCOCONUTID, tmpName, tmpDoubleValues, new int[] {(int) tmpRuleOfFiveResult[0]});
+    }
 } //end of class
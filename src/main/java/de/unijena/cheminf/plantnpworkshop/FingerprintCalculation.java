@@ -25,25 +25,18 @@
 package de.unijena.cheminf.plantnpworkshop;
 
 import org.openscience.cdk.DefaultChemObjectBuilder;
-import org.openscience.cdk.aromaticity.Aromaticity;
-import org.openscience.cdk.aromaticity.ElectronDonation;
 import org.openscience.cdk.exception.CDKException;
 import org.openscience.cdk.fingerprint.CircularFingerprinter;
 import org.openscience.cdk.fingerprint.IBitFingerprint;
 import org.openscience.cdk.fingerprint.PubchemFingerprinter;
-import org.openscience.cdk.graph.Cycles;
 import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.interfaces.IChemObjectBuilder;
-import org.openscience.cdk.io.iterator.IteratingSDFReader;
 import org.openscience.cdk.similarity.Tanimoto;
-import org.openscience.cdk.smiles.SmiFlavor;
 import org.openscience.cdk.smiles.SmilesGenerator;
-import org.openscience.cdk.smiles.SmilesParser;
-import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 /**
  * Demo class for calculating PubChem and EC fingerprints and calculating a Tanimoto similarity using CDK.
@@ -55,71 +48,154 @@ import java.io.FileNotFoundException;
  * @author Jonas Schaub
  */
 public class FingerprintCalculation {
+    /**
+     * SMILES representation of Flower Of Paradise (CNP0218319)
+     */
+    private static final String FLOWER_OF_PARADISE_SMILES = "O=C1C=C(O)C(=O)C=2C=CC=CC12";
+
+    /**
+     * Column layout of the results written to a {@link ResultSink}; the bit indices are not part of it, see
+     * {@link FingerprintDatabase} for storing whole fingerprints.
+     */
+    static final ResultSchema SCHEMA = new ResultSchema(
+            new String[] {"PubChemTanimotoToFlowerOfParadise", "ECFPTanimotoToFlowerOfParadise"},
+            new String[] {"PubChemPositiveBits", "ECFPPositiveBits"});
+
     /**
      * COCONUT subset molecules are loaded from SD file and their PubChem and Extended Connectivity fingerprints
-     * calculated and reported on console. Additionally, the Tanimoto similarity of every compound to one of them
+     * calculated and reported on console (or their numbers of positive bits written to the file given by the system
+     * property 'plantnpworkshop.output', see {@link ResultSink#fromSystemProperties(ResultSchema)}). Additionally, the Tanimoto similarity of every compound to one of them
      * (Flower Of Paradise (CNP0218319)) is calculated using both fingerprints.
      *
      * @param args the command line arguments (none required)
      */
-    public static void main(String[] args) throws FileNotFoundException, CDKException {
+    public static void main(String[] args) throws IOException, CDKException {
 
         //*loading SD file from resources*
         File tmpSDFile = new File("src/main/resources/COCONUTset-10.sdf");
         //a factory class to provide implementation independent ICDKObjects, needed for SDF parsing
         IChemObjectBuilder tmpBuilder = DefaultChemObjectBuilder.getInstance();
-        //skip: true -> erroneous entries will be skipped
-        IteratingSDFReader tmpReader = new IteratingSDFReader(new FileInputStream(tmpSDFile), tmpBuilder, true);
+        //records are split by one reader thread, parsed and processed on a pool of workers, and consumed in input order
+        //erroneous entries will be skipped
+        int tmpWorkerCount = SDFRecordPipeline.getConfiguredWorkerCount();
 
-        //*iterating molecules in file*
-        while(tmpReader.hasNext()) {
-            IAtomContainer tmpMolecule = tmpReader.next();
-            //reading attributes of molecules stored in SDF, they are added as properties to the atom container automatically
-            String tmpCOCONUTID = tmpMolecule.getProperty("COCONUT_ID");
-            String tmpName = tmpMolecule.getProperty("Name");
-            System.out.println("\n\n" + tmpName + " (" + tmpCOCONUTID + ")");
+        //fingerprints of unchanged molecules are taken from the cache file given by -Dplantnpworkshop.cache=<file>, if any
+        //results are printed to console or, with -Dplantnpworkshop.output=<file>, written to a CSV, TSV or columnar file
+        //stage timings are logged to System.err with -Dplantnpworkshop.metrics=true
+        try (PipelineMetrics tmpMetrics = PipelineMetrics.fromSystemProperties();
+                ResultCache tmpCache = ResultCache.fromSystemProperties();
+                ResultSink tmpSink = ResultSink.fromSystemProperties(FingerprintCalculation.SCHEMA)) {
+            //*iterating molecules in file*
+            if (tmpSink != null) {
+                //no console report is assembled, only the result rows
+                SDFRecordPipeline<ResultRow> tmpPipeline = new SDFRecordPipeline<>(tmpBuilder, tmpWorkerCount, 4 * tmpWorkerCount);
+                tmpPipeline.setMetrics(tmpMetrics);
+                tmpPipeline.run(new FileInputStream(tmpSDFile),
+                        (aMolecule, anIndex) -> FingerprintCalculation.calculateFingerprints(aMolecule, tmpBuilder, tmpCache, tmpMetrics, null),
+                        tmpSink::write);
+            } else {
+                SDFRecordPipeline<String> tmpPipeline = new SDFRecordPipeline<>(tmpBuilder, tmpWorkerCount, 4 * tmpWorkerCount);
+                tmpPipeline.setMetrics(tmpMetrics);
+                tmpPipeline.run(new FileInputStream(tmpSDFile),
+                        (aMolecule, anIndex) -> {
+                            StringBuilder tmpReport = new StringBuilder();
+                            FingerprintCalculation.calculateFingerprints(aMolecule, tmpBuilder, tmpCache, tmpMetrics, tmpReport);
+                            return tmpReport.toString();
+                        },
+                        System.out::print);
+            }
+            if (tmpCache.isEnabled()) {
+                System.out.println("\n" + tmpCache.getStatistics());
+            }
+        }
+    } //end of main()
+
+    /**
+     * Calculates the fingerprints of one molecule and its similarities to the Flower of Paradise and optionally
+     * appends the formatted console report block.
+     *
+     * @param aMolecule the molecule, it is not modified
+     * @param aBuilder chem object builder the fingerprinters are initialised with
+     * @param aCache cache of fingerprints, possibly disabled
+     * @param aMetrics receives the durations of the preprocessing, fingerprint and similarity stages, possibly disabled
+     * @param aReport receives the console output for the molecule, may be null if no report is needed
+     * @return similarities and numbers of positive bits laid out as described by {@link #SCHEMA}
+     * @throws CDKException if a fingerprint calculation fails
+     */
+    static ResultRow calculateFingerprints(IAtomContainer aMolecule, IChemObjectBuilder aBuilder,
+            ResultCache aCache, PipelineMetrics aMetrics, StringBuilder aReport) throws CDKException {
+        //fingerprinters, SMILES generator and aromaticity model are constructed only once per worker thread
+        CalculatorRegistry tmpRegistry = CalculatorRegistry.forCurrentThread(aBuilder);
+        //reading attributes of molecules stored in SDF, they are added as properties to the atom container automatically
+        String tmpCOCONUTID = aMolecule.getProperty("COCONUT_ID");
+        String tmpName = aMolecule.getProperty("Name");
+        //*preprocessing*
+        //PubChem needs explicit Hs, the circular fingerprinter and the first SMILES work on the molecule as read;
+        //the explicit-H form is derived from a copy, so the as-read molecule stays untouched
+        PreparedMolecule tmpPrepared = PreparedMolecule.forCalculators(aMolecule, tmpRegistry,
+                MoleculeCalculator.PUBCHEM_FINGERPRINT, MoleculeCalculator.CIRCULAR_FINGERPRINT);
+        tmpPrepared.setMetrics(aMetrics);
+        String tmpStructureKey = aCache.createStructureKey(aMolecule);
 
-            //*PubChem fingerprint calculation*
-            //preprocessing required: Hs explicit, atom types configured, aromaticity detected
-            SmilesGenerator tmpSmiGen = new SmilesGenerator(SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols);
-            System.out.println("\tSMILES representation before preprocessing: " + tmpSmiGen.create(tmpMolecule));
-            AtomContainerManipulator.convertImplicitToExplicitHydrogens(tmpMolecule);
-            AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(tmpMolecule);
-            //aromaticity model is constructed from electron donation model and cycle finder
-            Aromaticity tmpAromaticity = new Aromaticity(ElectronDonation.cdk(), Cycles.cdkAromaticSet());
-            tmpAromaticity.apply(tmpMolecule);
-            System.out.println("\tSMILES representation AFTER preprocessing: " + tmpSmiGen.create(tmpMolecule));
-            PubchemFingerprinter tmpPubChemFingerprinter = new PubchemFingerprinter(tmpBuilder);
-            IBitFingerprint tmpPubChemFingerprint = tmpPubChemFingerprinter.getBitFingerprint(tmpMolecule);
-            System.out.println("\n\tPubChem fingerprint:");
-            System.out.println("\t\tNumber of positive bits: " + tmpPubChemFingerprint.cardinality());
-            System.out.println("\t\tIndices of positive bits: " + tmpPubChemFingerprint.asBitSet().toString());
+        //*PubChem fingerprint calculation*
+        //preprocessing required: Hs explicit, atom types configured, aromaticity detected
+        if (aReport != null) {
+            SmilesGenerator tmpSmiGen = tmpRegistry.getUniqueAromaticSmilesGenerator();
+            //the preprocessed form is needed for the second SMILES even if the fingerprint is taken from the cache
+            IAtomContainer tmpPreprocessed = tmpPrepared.getFor(MoleculeCalculator.PUBCHEM_FINGERPRINT);
+            long tmpStart = aMetrics.start();
+            aReport.append("\n\n" + tmpName + " (" + tmpCOCONUTID + ")").append(System.lineSeparator());
+            aReport.append("\tSMILES representation before preprocessing: " + tmpSmiGen.create(tmpPrepared.get(MoleculeForm.AS_READ))).append(System.lineSeparator());
+            aReport.append("\tSMILES representation AFTER preprocessing: " + tmpSmiGen.create(tmpPreprocessed)).append(System.lineSeparator());
+            aMetrics.record(ProcessingStage.SMILES, tmpStart);
+        }
+        PubchemFingerprinter tmpPubChemFingerprinter = tmpRegistry.getPubChemFingerprinter();
+        //the fingerprint of an unchanged molecule is taken from the cache
+        IBitFingerprint tmpPubChemFingerprint = aCache.getFingerprint(MoleculeCalculator.PUBCHEM_FINGERPRINT, tmpStructureKey, () -> {
+            IAtomContainer tmpInput = tmpPrepared.getFor(MoleculeCalculator.PUBCHEM_FINGERPRINT);
+            long tmpStart = aMetrics.start();
+            IBitFingerprint tmpFingerprint = tmpPubChemFingerprinter.getBitFingerprint(tmpInput);
+            aMetrics.record(ProcessingStage.PUBCHEM_FINGERPRINT, tmpStart);
+            return tmpFingerprint;
+        });
+        if (aReport != null) {
+            aReport.append("\n\tPubChem fingerprint:").append(System.lineSeparator());
+            aReport.append("\t\tNumber of positive bits: " + tmpPubChemFingerprint.cardinality()).append(System.lineSeparator());
+            aReport.append("\t\tIndices of positive bits: " + tmpPubChemFingerprint.asBitSet().toString()).append(System.lineSeparator());
+        }
 
-            //*ECFP calculation*
-            //Circular fingerprints: for generating fingerprints that are functionally equivalent to ECFP-2/4/6 and FCFP-2/4/6 fingerprints
-            //Default constructor: uses the ECFP6 type.
-            CircularFingerprinter tmpECFPrinter = new CircularFingerprinter();
-            //aromaticity detection and atom typing is done internally
-            //implicit vs. explicit hydrogens are handled, i.e. it doesn't matter whether the incoming molecule is hydrogen suppressed or not.
-            //Calculates the circular fingerprint for the given IAtomContainer, and folds the result into a single bitset (see getSize()).
-            IBitFingerprint tmpECFPrint = tmpECFPrinter.getBitFingerprint(tmpMolecule);
-            System.out.println("\n\tCircular fingerprint (ECFP6):");
-            System.out.println("\t\tNumber of positive bits: " + tmpECFPrint.cardinality());
-            System.out.println("\t\tIndices of positive bits: " + tmpECFPrint.asBitSet().toString());
+        //*ECFP calculation*
+        //Circular fingerprints: for generating fingerprints that are functionally equivalent to ECFP-2/4/6 and FCFP-2/4/6 fingerprints
+        //Default constructor: uses the ECFP6 type.
+        CircularFingerprinter tmpECFPrinter = tmpRegistry.getCircularFingerprinter();
+        //aromaticity detection and atom typing is done internally, so the molecule as read is used
+        //implicit vs. explicit hydrogens are handled, i.e. it doesn't matter whether the incoming molecule is hydrogen suppressed or not.
+        //Calculates the circular fingerprint for the given IAtomContainer, and folds the result into a single bitset (see getSize()).
+        IBitFingerprint tmpECFPrint = aCache.getFingerprint(MoleculeCalculator.CIRCULAR_FINGERPRINT, tmpStructureKey, () -> {
+            long tmpStart = aMetrics.start();
+            IBitFingerprint tmpFingerprint = tmpECFPrinter.getBitFingerprint(tmpPrepared.getFor(MoleculeCalculator.CIRCULAR_FINGERPRINT));
+            aMetrics.record(ProcessingStage.CIRCULAR_FINGERPRINT, tmpStart);
+            return tmpFingerprint;
+        });
+        if (aReport != null) {
+            aReport.append("\n\tCircular fingerprint (ECFP6):").append(System.lineSeparator());
+            aReport.append("\t\tNumber of positive bits: " + tmpECFPrint.cardinality()).append(System.lineSeparator());
+            aReport.append("\t\tIndices of positive bits: " + tmpECFPrint.asBitSet().toString()).append(System.lineSeparator());
+        }
 
-            //*Tanimoto calculation*
-            SmilesParser tmpSmiPar = new SmilesParser(tmpBuilder);
-            //SMILES representation of Flower Of Paradise (CNP0218319)
-            IAtomContainer tmpFlowerOfParadise = tmpSmiPar.parseSmiles("O=C1C=C(O)C(=O)C=2C=CC=CC12");
-            IBitFingerprint tmpFOPECFPrint = tmpECFPrinter.getBitFingerprint(tmpFlowerOfParadise);
-            AtomContainerManipulator.convertImplicitToExplicitHydrogens(tmpFlowerOfParadise);
-            AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(tmpFlowerOfParadise);
-            tmpAromaticity.apply(tmpFlowerOfParadise);
-            IBitFingerprint tmpFOPPubChemFingerprint = tmpPubChemFingerprinter.getBitFingerprint(tmpFlowerOfParadise);
-            double tmpPubChemTanimoto = Tanimoto.calculate(tmpPubChemFingerprint, tmpFOPPubChemFingerprint);
-            System.out.println("\n\tTanimoto similarity (using PubChem FP) to the Flower of Paradise: " + String.format("%,.2f", tmpPubChemTanimoto));
-            double tmpECFPTanimoto = Tanimoto.calculate(tmpECFPrint, tmpFOPECFPrint);
-            System.out.println("\tTanimoto similarity (using ECFP) to the Flower of Paradise: " + String.format("%,.2f", tmpECFPTanimoto));
-        } //end of while()
-    } //end of main()
+        //*Tanimoto calculation*
+        //fingerprints of the Flower Of Paradise are calculated once per worker thread and then taken from the registry cache
+        IBitFingerprint tmpFOPECFPrint = tmpRegistry.getCircularReferenceFingerprint(FingerprintCalculation.FLOWER_OF_PARADISE_SMILES);
+        IBitFingerprint tmpFOPPubChemFingerprint = tmpRegistry.getPubChemReferenceFingerprint(FingerprintCalculation.FLOWER_OF_PARADISE_SMILES);
+        long tmpTanimotoStart = aMetrics.start();
+        double tmpPubChemTanimoto = Tanimoto.calculate(tmpPubChemFingerprint, tmpFOPPubChemFingerprint);
+        double tmpECFPTanimoto = Tanimoto.calculate(tmpECFPrint, tmpFOPECFPrint);
+        aMetrics.record(ProcessingStage.TANIMOTO, tmpTanimotoStart);
+        if (aReport != null) {
+            aReport.append("\n\tTanimoto similarity (using PubChem FP) to the Flower of Paradise: " + String.format("%,.2f", tmpPubChemTanimoto)).append(System.lineSeparator());
+            aReport.append("\tTanimoto similarity (using ECFP) to the Flower of Paradise: " + String.format("%,.2f", tmpECFPTanimoto)).append(System.lineSeparator());
+        }
+        return new ResultRow(tmpCOCONUTID, tmpName, new double[] {tmpPubChemTanimoto, tmpECFPTanimoto},
+                new int[] {tmpPubChemFingerprint.cardinality(), tmpECFPrint.cardinality()});
+    }
 } //end of class
@@ -0,0 +1,317 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.CDK;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.fingerprint.IBitFingerprint;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Persistent, memory-mapped fingerprint database.
+ * <p>
+ * A database file stores the packed fingerprints of one {@link FingerprintIndex} together with their cardinalities
+ * and COCONUT_IDs. It is built once from an SD file and opened through {@link FileChannel#map}, so a similarity
+ * search can start right away, without parsing the SD file, fingerprinting, or allocating one IBitFingerprint per
+ * record. IDs are decoded only for the hits.
+ * <p>
+ * File layout (little endian): magic "CNPFPDB1", format version, fingerprint type (the {@link MoleculeCalculator}
+ * name), fingerprinter parameters (fingerprinter, bit length, CDK version), fingerprint size, entry count, header
+ * padded to 8 bytes; then the packed fingerprint words, the cardinalities, the insertion indices, the ID offsets and
+ * the UTF-8 encoded IDs. Opening a file whose version, type or parameters differ from the expected ones fails with
+ * an IOException, so a stale file is never used silently.
+ */
+public final class FingerprintDatabase {
+    /**
+     * First 8 bytes of every database file.
+     */
+    private static final byte[] MAGIC = "CNPFPDB1".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Version of the file layout, to be increased on every incompatible change.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private FingerprintDatabase() {
+    }
+
+    /**
+     * Returns the fingerprinter parameters recorded in the header of database files of the given type. They match
+     * the fingerprinters handed out by {@link CalculatorRegistry}.
+     *
+     * @param aFingerprintType PUBCHEM_FINGERPRINT or CIRCULAR_FINGERPRINT
+     * @return description of the fingerprinter and its parameters
+     * @throws IllegalArgumentException if the calculator is not a fingerprint
+     */
+    public static String getParameters(MoleculeCalculator aFingerprintType) {
+        switch (aFingerprintType) {
+            case PUBCHEM_FINGERPRINT:
+                return "PubchemFingerprinter;bits=881;cdk=" + CDK.getVersion();
+            case CIRCULAR_FINGERPRINT:
+                return "CircularFingerprinter;type=ECFP6;length=1024;cdk=" + CDK.getVersion();
+            default:
+                throw new IllegalArgumentException(aFingerprintType + " is not a fingerprint.");
+        }
+    }
+
+    /**
+     * Calculates the fingerprints of all molecules of an SD file on the record pipeline and writes them to a
+     * database file.
+     *
+     * @param anSDFile input SD file, the COCONUT_ID property is used as ID
+     * @param aFingerprintType PUBCHEM_FINGERPRINT or CIRCULAR_FINGERPRINT
+     * @param aDatabaseFile output file, replaced if it exists
+     * @throws IOException if reading or writing fails
+     * @throws CDKException if fingerprinting fails
+     */
+    public static void build(File anSDFile, MoleculeCalculator aFingerprintType, Path aDatabaseFile)
+            throws IOException, CDKException {
+        FingerprintDatabase.getParameters(aFingerprintType);
+        IChemObjectBuilder tmpBuilder = DefaultChemObjectBuilder.getInstance();
+        SDFRecordPipeline<Object[]> tmpPipeline = new SDFRecordPipeline<>(tmpBuilder,
+                SDFRecordPipeline.getConfiguredWorkerCount(), 4 * SDFRecordPipeline.getConfiguredWorkerCount());
+        FingerprintIndex.Builder tmpIndexBuilder = new FingerprintIndex.Builder();
+        tmpPipeline.run(new FileInputStream(anSDFile), (aMolecule, anIndex) -> {
+            CalculatorRegistry tmpRegistry = CalculatorRegistry.forCurrentThread(tmpBuilder);
+            PreparedMolecule tmpPrepared = PreparedMolecule.forCalculators(aMolecule, tmpRegistry, aFingerprintType);
+            IBitFingerprint tmpFingerprint = aFingerprintType == MoleculeCalculator.PUBCHEM_FINGERPRINT
+                    ? tmpRegistry.getPubChemFingerprinter().getBitFingerprint(tmpPrepared.getFor(aFingerprintType))
+                    : tmpRegistry.getCircularFingerprinter().getBitFingerprint(tmpPrepared.getFor(aFingerprintType));
+            return new Object[] {aMolecule.getProperty("COCONUT_ID"), tmpFingerprint};
+        }, anEntry -> tmpIndexBuilder.add((String) anEntry[0], (IBitFingerprint) anEntry[1]));
+        FingerprintDatabase.write(tmpIndexBuilder.build(), aFingerprintType, aDatabaseFile);
+    }
+
+    /**
+     * Writes the given index to a database file. The file is written next to the target and moved into place when
+     * complete, so readers never see a partial file.
+     *
+     * @param anIndex the index
+     * @param aFingerprintType fingerprint type of the indexed fingerprints
+     * @param aDatabaseFile output file, replaced if it exists
+     * @throws IOException if writing fails
+     */
+    public static void write(FingerprintIndex anIndex, MoleculeCalculator aFingerprintType, Path aDatabaseFile)
+            throws IOException {
+        int tmpCount = anIndex.size();
+        int tmpWordCount = FingerprintIndex.getWordCount(anIndex.getFingerprintSize());
+        byte[][] tmpIds = new byte[tmpCount][];
+        int[] tmpIdOffsets = new int[tmpCount + 1];
+        for (int i = 0; i < tmpCount; i++) {
+            String tmpId = anIndex.getIdAt(i);
+            tmpIds[i] = (tmpId == null ? "" : tmpId).getBytes(StandardCharsets.UTF_8);
+            tmpIdOffsets[i + 1] = tmpIdOffsets[i] + tmpIds[i].length;
+        }
+        byte[] tmpHeader = FingerprintDatabase.createHeader(aFingerprintType, anIndex.getFingerprintSize(), tmpCount);
+        Path tmpPartFile = aDatabaseFile.resolveSibling(aDatabaseFile.getFileName() + ".part");
+        try (FileChannel tmpChannel = FileChannel.open(tmpPartFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            FingerprintDatabase.writeFully(tmpChannel, ByteBuffer.wrap(tmpHeader));
+            ByteBuffer tmpBuffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            LongBuffer tmpWords = anIndex.getWords();
+            for (int i = 0; i < tmpCount * tmpWordCount; i++) {
+                FingerprintDatabase.ensureRemaining(tmpChannel, tmpBuffer, Long.BYTES);
+                tmpBuffer.putLong(tmpWords.get(i));
+            }
+            IntBuffer tmpCardinalities = anIndex.getCardinalities();
+            for (int i = 0; i < tmpCount; i++) {
+                FingerprintDatabase.ensureRemaining(tmpChannel, tmpBuffer, Integer.BYTES);
+                tmpBuffer.putInt(tmpCardinalities.get(i));
+            }
+            IntBuffer tmpIndices = anIndex.getIndices();
+            for (int i = 0; i < tmpCount; i++) {
+                FingerprintDatabase.ensureRemaining(tmpChannel, tmpBuffer, Integer.BYTES);
+                tmpBuffer.putInt(tmpIndices.get(i));
+            }
+            for (int tmpOffset : tmpIdOffsets) {
+                FingerprintDatabase.ensureRemaining(tmpChannel, tmpBuffer, Integer.BYTES);
+                tmpBuffer.putInt(tmpOffset);
+            }
+            for (byte[] tmpId : tmpIds) {
+                if (tmpId.length > tmpBuffer.capacity()) {
+                    throw new IOException("ID too long: " + new String(tmpId, StandardCharsets.UTF_8));
+                }
+                FingerprintDatabase.ensureRemaining(tmpChannel, tmpBuffer, tmpId.length);
+                tmpBuffer.put(tmpId);
+            }
+            tmpBuffer.flip();
+            FingerprintDatabase.writeFully(tmpChannel, tmpBuffer);
+            tmpChannel.force(false);
+        }
+        Files.move(tmpPartFile, aDatabaseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Maps a database file into memory and returns an index over it. Nothing but the header is read eagerly.
+     *
+     * @param aDatabaseFile the database file
+     * @param anExpectedType fingerprint type the caller is going to query with
+     * @return index backed by the mapped file
+     * @throws IOException if the file cannot be read, is corrupt, or was written with another format version,
+     * fingerprint type or fingerprinter parameters
+     */
+    public static FingerprintIndex open(Path aDatabaseFile, MoleculeCalculator anExpectedType) throws IOException {
+        MappedByteBuffer tmpMapped;
+        try (FileChannel tmpChannel = FileChannel.open(aDatabaseFile, StandardOpenOption.READ)) {
+            if (tmpChannel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Fingerprint database " + aDatabaseFile + " is too large to be mapped.");
+            }
+            tmpMapped = tmpChannel.map(FileChannel.MapMode.READ_ONLY, 0, tmpChannel.size());
+        }
+        ByteBuffer tmpFile = tmpMapped.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            byte[] tmpMagic = new byte[FingerprintDatabase.MAGIC.length];
+            tmpFile.get(tmpMagic);
+            if (!Arrays.equals(tmpMagic, FingerprintDatabase.MAGIC)) {
+                throw new IOException(aDatabaseFile + " is not a fingerprint database.");
+            }
+            int tmpVersion = tmpFile.getInt();
+            if (tmpVersion != FingerprintDatabase.FORMAT_VERSION) {
+                throw new IOException("Fingerprint database " + aDatabaseFile + " has format version " + tmpVersion
+                        + ", expected " + FingerprintDatabase.FORMAT_VERSION + "; please rebuild it.");
+            }
+            String tmpType = FingerprintDatabase.readString(tmpFile);
+            String tmpParameters = FingerprintDatabase.readString(tmpFile);
+            if (!anExpectedType.name().equals(tmpType)
+                    || !FingerprintDatabase.getParameters(anExpectedType).equals(tmpParameters)) {
+                throw new IOException("Fingerprint database " + aDatabaseFile + " holds " + tmpType + " ("
+                        + tmpParameters + "), expected " + anExpectedType + " ("
+                        + FingerprintDatabase.getParameters(anExpectedType) + "); please rebuild it.");
+            }
+            int tmpFingerprintSize = tmpFile.getInt();
+            int tmpCount = tmpFile.getInt();
+            int tmpWordCount = FingerprintIndex.getWordCount(tmpFingerprintSize);
+            int tmpPosition = FingerprintDatabase.align(tmpFile.position());
+            LongBuffer tmpWords = FingerprintDatabase.slice(tmpFile, tmpPosition, tmpCount * tmpWordCount * Long.BYTES).asLongBuffer();
+            tmpPosition += tmpCount * tmpWordCount * Long.BYTES;
+            IntBuffer tmpCardinalities = FingerprintDatabase.slice(tmpFile, tmpPosition, tmpCount * Integer.BYTES).asIntBuffer();
+            tmpPosition += tmpCount * Integer.BYTES;
+            IntBuffer tmpIndices = FingerprintDatabase.slice(tmpFile, tmpPosition, tmpCount * Integer.BYTES).asIntBuffer();
+            tmpPosition += tmpCount * Integer.BYTES;
+            IntBuffer tmpIdOffsets = FingerprintDatabase.slice(tmpFile, tmpPosition, (tmpCount + 1) * Integer.BYTES).asIntBuffer();
+            tmpPosition += (tmpCount + 1) * Integer.BYTES;
+            ByteBuffer tmpIdBytes = FingerprintDatabase.slice(tmpFile, tmpPosition, tmpIdOffsets.get(tmpCount));
+            return new FingerprintIndex(tmpFingerprintSize, tmpCount, tmpWords, tmpCardinalities, tmpIndices,
+                    aPosition -> {
+                        int tmpStart = tmpIdOffsets.get(aPosition);
+                        byte[] tmpId = new byte[tmpIdOffsets.get(aPosition + 1) - tmpStart];
+                        tmpIdBytes.duplicate().position(tmpStart).get(tmpId);
+                        return new String(tmpId, StandardCharsets.UTF_8);
+                    });
+        } catch (RuntimeException anException) {
+            //buffer under- or overflows and negative sizes point to a truncated or corrupt file
+            throw new IOException("Fingerprint database " + aDatabaseFile + " is corrupt.", anException);
+        }
+    }
+
+    /**
+     * Builds PubChem and ECFP6 fingerprint databases for an SD file.
+     *
+     * @param args SD file (default: the COCONUT subset in the resources) and output directory (default: target)
+     */
+    public static void main(String[] args) throws IOException, CDKException {
+        File tmpSDFile = new File(args.length > 0 ? args[0] : "src/main/resources/COCONUTset-10.sdf");
+        Path tmpDirectory = Path.of(args.length > 1 ? args[1] : "target");
+        Files.createDirectories(tmpDirectory);
+        for (MoleculeCalculator tmpType : new MoleculeCalculator[] {MoleculeCalculator.PUBCHEM_FINGERPRINT,
+                MoleculeCalculator.CIRCULAR_FINGERPRINT}) {
+            Path tmpDatabaseFile = tmpDirectory.resolve(FingerprintDatabase.getDefaultFileName(tmpType));
+            long tmpStart = System.nanoTime();
+            FingerprintDatabase.build(tmpSDFile, tmpType, tmpDatabaseFile);
+            System.out.println("Built " + tmpDatabaseFile + " in " + (System.nanoTime() - tmpStart) / 1000000 + " ms");
+        }
+    }
+
+    /**
+     * @param aFingerprintType fingerprint type
+     * @return file name used by {@link #main(String[])} for databases of the given type
+     */
+    public static String getDefaultFileName(MoleculeCalculator aFingerprintType) {
+        return aFingerprintType.name().toLowerCase(Locale.ROOT) + ".fpdb";
+    }
+
+    private static byte[] createHeader(MoleculeCalculator aFingerprintType, int aFingerprintSize, int aCount) {
+        byte[] tmpType = aFingerprintType.name().getBytes(StandardCharsets.UTF_8);
+        byte[] tmpParameters = FingerprintDatabase.getParameters(aFingerprintType).getBytes(StandardCharsets.UTF_8);
+        int tmpLength = FingerprintDatabase.MAGIC.length + 5 * Integer.BYTES + tmpType.length + tmpParameters.length;
+        ByteBuffer tmpHeader = ByteBuffer.allocate(FingerprintDatabase.align(tmpLength)).order(ByteOrder.LITTLE_ENDIAN);
+        tmpHeader.put(FingerprintDatabase.MAGIC);
+        tmpHeader.putInt(FingerprintDatabase.FORMAT_VERSION);
+        tmpHeader.putInt(tmpType.length).put(tmpType);
+        tmpHeader.putInt(tmpParameters.length).put(tmpParameters);
+        tmpHeader.putInt(aFingerprintSize);
+        tmpHeader.putInt(aCount);
+        return tmpHeader.array();
+    }
+
+    private static String readString(ByteBuffer aBuffer) {
+        byte[] tmpBytes = new byte[aBuffer.getInt()];
+        aBuffer.get(tmpBytes);
+        return new String(tmpBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Rounds up to the next multiple of 8, so the long section is aligned.
+     */
+    private static int align(int aPosition) {
+        return (aPosition + 7) & ~7;
+    }
+
+    private static ByteBuffer slice(ByteBuffer aBuffer, int aPosition, int aLength) {
+        return aBuffer.duplicate().position(aPosition).limit(aPosition + aLength).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void ensureRemaining(FileChannel aChannel, ByteBuffer aBuffer, int aByteCount) throws IOException {
+        if (aBuffer.remaining() < aByteCount) {
+            aBuffer.flip();
+            FingerprintDatabase.writeFully(aChannel, aBuffer);
+            aBuffer.clear();
+        }
+    }
+
+    private static void writeFully(FileChannel aChannel, ByteBuffer aBuffer) throws IOException {
+        while (aBuffer.hasRemaining()) {
+            aChannel.write(aBuffer);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.fingerprint.IBitFingerprint;
+import org.openscience.cdk.similarity.Tanimoto;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Compact in-memory index of bit fingerprints of one type (e.g. PubChem with 881 bits or folded ECFP6 with 1024
+ * bits) for Tanimoto similarity searches. Like Tanimoto.calculate(), the index requires the query to have the same
+ * {@link IBitFingerprint#size()} as the indexed fingerprints.
+ * <p>
+ * All fingerprints are packed into one contiguous block of longs, ordered by ascending cardinality, and the
+ * cardinalities are precomputed. The block is a long[] array for indexes built in memory and a memory-mapped file
+ * region for indexes opened from a {@link FingerprintDatabase}. The Tanimoto similarity of two fingerprints with cardinalities a and b can be at
+ * most min(a, b) / max(a, b), so for a similarity threshold only the cardinality window
+ * [threshold * a, a / threshold] has to be scored, and a top-k search can stop as soon as this bound falls below
+ * the k-th best score found. Scoring uses popcount on the packed words and yields exactly the values of
+ * {@link Tanimoto#calculate(IBitFingerprint, IBitFingerprint)}. Searches for many queries run in parallel on the
+ * common fork/join pool.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public final class FingerprintIndex {
+    /**
+     * Collects fingerprints and their identifiers for a new index. Not thread-safe.
+     */
+    public static final class Builder {
+        private int fingerprintSize;
+
+        private int wordCount;
+
+        private long[] words;
+
+        private int[] cardinalities;
+
+        private final List<String> ids = new ArrayList<>();
+
+        /**
+         * Creates a builder that takes the fingerprint size from the first added fingerprint.
+         */
+        public Builder() {
+            this.fingerprintSize = -1;
+        }
+
+        /**
+         * @param aFingerprintSize size of the fingerprints in bits as reported by {@link IBitFingerprint#size()}, e.g.
+         *                         896 for PubChem fingerprints (881 bits rounded up to whole words) or 1024 for
+         *                         ECFP6 folded by the default CircularFingerprinter
+         */
+        public Builder(int aFingerprintSize) {
+            if (aFingerprintSize < 1) {
+                throw new IllegalArgumentException("Fingerprint size must be positive.");
+            }
+            this.initialise(aFingerprintSize);
+        }
+
+        /**
+         * Adds a fingerprint to the index.
+         *
+         * @param anId identifier of the fingerprint, e.g. the COCONUT_ID of the molecule
+         * @param aFingerprint the fingerprint, it is copied
+         * @return this builder
+         * @throws IllegalArgumentException if the fingerprint size does not match
+         */
+        public Builder add(String anId, IBitFingerprint aFingerprint) {
+            if (this.fingerprintSize < 0) {
+                this.initialise((int) aFingerprint.size());
+            }
+            int tmpPosition = this.ids.size();
+            if (tmpPosition == this.cardinalities.length) {
+                this.cardinalities = Arrays.copyOf(this.cardinalities, 2 * tmpPosition);
+                this.words = Arrays.copyOf(this.words, 2 * tmpPosition * this.wordCount);
+            }
+            FingerprintIndex.pack(aFingerprint, this.fingerprintSize, this.words, tmpPosition * this.wordCount);
+            this.cardinalities[tmpPosition] = aFingerprint.cardinality();
+            this.ids.add(anId);
+            return this;
+        }
+
+        /**
+         * @return number of fingerprints added so far
+         */
+        public int size() {
+            return this.ids.size();
+        }
+
+        /**
+         * @return new index over all added fingerprints
+         * @throws IllegalStateException if the fingerprint size is unknown because nothing was added
+         */
+        public FingerprintIndex build() {
+            if (this.fingerprintSize < 0) {
+                throw new IllegalStateException("Fingerprint size is unknown, no fingerprint was added.");
+            }
+            int tmpCount = this.ids.size();
+            //sort positions by cardinality, the sort is stable so ties keep the insertion order
+            Integer[] tmpOrder = new Integer[tmpCount];
+            for (int i = 0; i < tmpCount; i++) {
+                tmpOrder[i] = i;
+            }
+            Arrays.sort(tmpOrder, (aFirst, aSecond) -> Integer.compare(this.cardinalities[aFirst], this.cardinalities[aSecond]));
+            long[] tmpWords = new long[tmpCount * this.wordCount];
+            int[] tmpCardinalities = new int[tmpCount];
+            int[] tmpIndices = new int[tmpCount];
+            String[] tmpIds = new String[tmpCount];
+            for (int i = 0; i < tmpCount; i++) {
+                int tmpSource = tmpOrder[i];
+                System.arraycopy(this.words, tmpSource * this.wordCount, tmpWords, i * this.wordCount, this.wordCount);
+                tmpCardinalities[i] = this.cardinalities[tmpSource];
+                tmpIndices[i] = tmpSource;
+                tmpIds[i] = this.ids.get(tmpSource);
+            }
+            return new FingerprintIndex(this.fingerprintSize, tmpCount, LongBuffer.wrap(tmpWords),
+                    IntBuffer.wrap(tmpCardinalities), IntBuffer.wrap(tmpIndices), aPosition -> tmpIds[aPosition]);
+        }
+
+        private void initialise(int aFingerprintSize) {
+            this.fingerprintSize = aFingerprintSize;
+            this.wordCount = FingerprintIndex.getWordCount(aFingerprintSize);
+            this.words = new long[64 * this.wordCount];
+            this.cardinalities = new int[64];
+        }
+    }
+
+    private final int fingerprintSize;
+
+    private final int wordCount;
+
+    private final int count;
+
+    /**
+     * Packed fingerprints, wordCount words per entry, ordered by ascending cardinality.
+     */
+    private final LongBuffer words;
+
+    private final IntBuffer cardinalities;
+
+    /**
+     * Insertion index of every entry.
+     */
+    private final IntBuffer indices;
+
+    private final IntFunction<String> ids;
+
+    /**
+     * Creates an index over the given storage, which may be heap arrays or a memory-mapped file (see
+     * {@link FingerprintDatabase}). Absolute get methods are used only, so the buffers may be shared.
+     *
+     * @param aFingerprintSize size of the fingerprints in bits
+     * @param aCount number of entries
+     * @param aWords packed fingerprints ordered by ascending cardinality
+     * @param aCardinalities cardinality of every entry, ascending
+     * @param anIndices insertion index of every entry
+     * @param anIds identifier of the entry at a given position
+     */
+    FingerprintIndex(int aFingerprintSize, int aCount, LongBuffer aWords, IntBuffer aCardinalities, IntBuffer anIndices,
+            IntFunction<String> anIds) {
+        this.fingerprintSize = aFingerprintSize;
+        this.wordCount = FingerprintIndex.getWordCount(aFingerprintSize);
+        this.count = aCount;
+        this.words = aWords;
+        this.cardinalities = aCardinalities;
+        this.indices = anIndices;
+        this.ids = anIds;
+    }
+
+    /**
+     * @return number of fingerprints in the index
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * @return size of the indexed fingerprints in bits
+     */
+    public int getFingerprintSize() {
+        return this.fingerprintSize;
+    }
+
+    /**
+     * Returns all entries with a Tanimoto similarity of at least the given threshold to the query.
+     *
+     * @param aQuery query fingerprint of the same size as the indexed ones
+     * @param aThreshold minimum similarity, greater than 0
+     * @return hits ordered by descending similarity
+     */
+    public List<SimilarityHit> searchThreshold(IBitFingerprint aQuery, double aThreshold) {
+        if (!(aThreshold > 0.0)) {
+            throw new IllegalArgumentException("Threshold must be greater than 0.");
+        }
+        long[] tmpQuery = this.packQuery(aQuery);
+        int tmpQueryCardinality = aQuery.cardinality();
+        List<SimilarityHit> tmpHits = new ArrayList<>();
+        //widened by one on each side, the exact score decides
+        int tmpFrom = this.lowerBound((int) Math.floor(aThreshold * tmpQueryCardinality));
+        int tmpTo = this.lowerBound((int) Math.min(Integer.MAX_VALUE - 1L, (long) Math.ceil(tmpQueryCardinality / aThreshold) + 1L));
+        for (int i = tmpFrom; i < tmpTo; i++) {
+            double tmpScore = this.score(tmpQuery, tmpQueryCardinality, i);
+            if (tmpScore >= aThreshold) {
+                tmpHits.add(new SimilarityHit(this.indices.get(i), this.ids.apply(i), tmpScore));
+            }
+        }
+        Collections.sort(tmpHits);
+        return tmpHits;
+    }
+
+    /**
+     * Returns the k entries most similar to the query whose similarity is at least the given threshold.
+     *
+     * @param aQuery query fingerprint of the same size as the indexed ones
+     * @param aK maximum number of hits
+     * @param aThreshold minimum similarity, 0 for none
+     * @return at most k hits ordered by descending similarity, ties by insertion order
+     */
+    public List<SimilarityHit> searchTopK(IBitFingerprint aQuery, int aK, double aThreshold) {
+        if (aK < 1) {
+            throw new IllegalArgumentException("k must be positive.");
+        }
+        long[] tmpQuery = this.packQuery(aQuery);
+        int tmpQueryCardinality = aQuery.cardinality();
+        //worst hit at the head
+        PriorityQueue<SimilarityHit> tmpBest = new PriorityQueue<>(Collections.reverseOrder());
+        //walk outwards from the query cardinality, always continuing on the side with the higher similarity bound
+        int tmpRight = this.lowerBound(tmpQueryCardinality);
+        int tmpLeft = tmpRight - 1;
+        while (tmpLeft >= 0 || tmpRight < this.count) {
+            double tmpLeftBound = tmpLeft >= 0 ? FingerprintIndex.getUpperBound(tmpQueryCardinality, this.cardinalities.get(tmpLeft)) : -1.0;
+            double tmpRightBound = tmpRight < this.count ? FingerprintIndex.getUpperBound(tmpQueryCardinality, this.cardinalities.get(tmpRight)) : -1.0;
+            double tmpBound = Math.max(tmpLeftBound, tmpRightBound);
+            double tmpMinimum = tmpBest.size() == aK ? Math.max(aThreshold, tmpBest.peek().getScore()) : aThreshold;
+            if (tmpBound < tmpMinimum) {
+                break;
+            }
+            int tmpPosition = tmpRightBound >= tmpLeftBound ? tmpRight++ : tmpLeft--;
+            double tmpScore = this.score(tmpQuery, tmpQueryCardinality, tmpPosition);
+            if (tmpScore >= aThreshold) {
+                tmpBest.add(new SimilarityHit(this.indices.get(tmpPosition), this.ids.apply(tmpPosition), tmpScore));
+                if (tmpBest.size() > aK) {
+                    tmpBest.poll();
+                }
+            }
+        }
+        List<SimilarityHit> tmpHits = new ArrayList<>(tmpBest);
+        Collections.sort(tmpHits);
+        return tmpHits;
+    }
+
+    /**
+     * Runs a top-k search for every query in parallel.
+     *
+     * @param aQueries query fingerprints of the same size as the indexed ones
+     * @param aK maximum number of hits per query
+     * @param aThreshold minimum similarity, 0 for none
+     * @return one hit list per query, in query order
+     */
+    public List<List<SimilarityHit>> searchTopK(List<? extends IBitFingerprint> aQueries, int aK, double aThreshold) {
+        return IntStream.range(0, aQueries.size()).parallel()
+                .mapToObj(i -> this.searchTopK(aQueries.get(i), aK, aThreshold))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Runs a threshold search for every query in parallel.
+     *
+     * @param aQueries query fingerprints of the same size as the indexed ones
+     * @param aThreshold minimum similarity, greater than 0
+     * @return one hit list per query, in query order
+     */
+    public List<List<SimilarityHit>> searchThreshold(List<? extends IBitFingerprint> aQueries, double aThreshold) {
+        return IntStream.range(0, aQueries.size()).parallel()
+                .mapToObj(i -> this.searchThreshold(aQueries.get(i), aThreshold))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return packed fingerprints, {@link #getWordCount(int)} words per entry, ordered by ascending cardinality
+     */
+    LongBuffer getWords() {
+        return this.words.duplicate();
+    }
+
+    /**
+     * @return cardinalities of the entries in storage order
+     */
+    IntBuffer getCardinalities() {
+        return this.cardinalities.duplicate();
+    }
+
+    /**
+     * @return insertion indices of the entries in storage order
+     */
+    IntBuffer getIndices() {
+        return this.indices.duplicate();
+    }
+
+    /**
+     * @param aPosition storage position
+     * @return identifier of the entry at the given storage position
+     */
+    String getIdAt(int aPosition) {
+        return this.ids.apply(aPosition);
+    }
+
+    /**
+     * Tanimoto similarity as computed by {@link Tanimoto#calculate(IBitFingerprint, IBitFingerprint)}, including
+     * the NaN result for two empty fingerprints.
+     *
+     * @param aCardinality cardinality of the first fingerprint
+     * @param anOtherCardinality cardinality of the second fingerprint
+     * @param aCommonCount number of bits set in both
+     * @return the Tanimoto similarity
+     */
+    static double getTanimoto(int aCardinality, int anOtherCardinality, int aCommonCount) {
+        double tmpCommon = aCommonCount;
+        return tmpCommon / ((double) (aCardinality + anOtherCardinality) - tmpCommon);
+    }
+
+    /**
+     * Upper bound of the Tanimoto similarity of two fingerprints with the given cardinalities.
+     */
+    static double getUpperBound(int aCardinality, int anOtherCardinality) {
+        if (aCardinality == 0 || anOtherCardinality == 0) {
+            return 0.0;
+        }
+        return (double) Math.min(aCardinality, anOtherCardinality) / Math.max(aCardinality, anOtherCardinality);
+    }
+
+    /**
+     * Number of 64-bit words needed for a fingerprint of the given size.
+     */
+    static int getWordCount(int aFingerprintSize) {
+        return (aFingerprintSize + 63) >>> 6;
+    }
+
+    /**
+     * Copies the bits of the fingerprint into the given array, starting at the given offset.
+     */
+    static void pack(IBitFingerprint aFingerprint, int aFingerprintSize, long[] aTarget, int anOffset) {
+        if (aFingerprint.size() != aFingerprintSize) {
+            throw new IllegalArgumentException("Fingerprints must have the same size");
+        }
+        BitSet tmpBits = aFingerprint.asBitSet();
+        long[] tmpWords = tmpBits.toLongArray();
+        Arrays.fill(aTarget, anOffset, anOffset + FingerprintIndex.getWordCount(aFingerprintSize), 0L);
+        System.arraycopy(tmpWords, 0, aTarget, anOffset, tmpWords.length);
+    }
+
+    private long[] packQuery(IBitFingerprint aQuery) {
+        long[] tmpQuery = new long[this.wordCount];
+        FingerprintIndex.pack(aQuery, this.fingerprintSize, tmpQuery, 0);
+        return tmpQuery;
+    }
+
+    /**
+     * Tanimoto similarity of the entries at the given storage positions.
+     */
+    double getSimilarity(int aPosition, int anOtherPosition) {
+        int tmpOffset = aPosition * this.wordCount;
+        int tmpOtherOffset = anOtherPosition * this.wordCount;
+        int tmpCommon = 0;
+        for (int i = 0; i < this.wordCount; i++) {
+            tmpCommon += Long.bitCount(this.words.get(tmpOffset + i) & this.words.get(tmpOtherOffset + i));
+        }
+        return FingerprintIndex.getTanimoto(this.cardinalities.get(aPosition), this.cardinalities.get(anOtherPosition), tmpCommon);
+    }
+
+    /**
+     * Tanimoto similarity of the packed query and the entry at the given position.
+     */
+    private double score(long[] aQuery, int aQueryCardinality, int aPosition) {
+        int tmpOffset = aPosition * this.wordCount;
+        int tmpCommon = 0;
+        for (int i = 0; i < this.wordCount; i++) {
+            tmpCommon += Long.bitCount(aQuery[i] & this.words.get(tmpOffset + i));
+        }
+        return FingerprintIndex.getTanimoto(aQueryCardinality, this.cardinalities.get(aPosition), tmpCommon);
+    }
+
+    /**
+     * First position with a cardinality of at least the given value.
+     */
+    int lowerBound(int aCardinality) {
+        int tmpLow = 0;
+        int tmpHigh = this.count;
+        while (tmpLow < tmpHigh) {
+            int tmpMiddle = (tmpLow + tmpHigh) >>> 1;
+            if (this.cardinalities.get(tmpMiddle) < aCardinality) {
+                tmpLow = tmpMiddle + 1;
+            } else {
+                tmpHigh = tmpMiddle;
+            }
+        }
+        return tmpLow;
+    }
+}
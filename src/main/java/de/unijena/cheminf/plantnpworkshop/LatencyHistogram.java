@@ -0,0 +1,137 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds with log-linear buckets: every power of two is divided into eight
+ * buckets, so percentiles are reported with a relative error of at most 12.5 % over the whole range of long values.
+ * Recording is a few atomic additions and may be done concurrently by any number of threads.
+ */
+public final class LatencyHistogram {
+    /**
+     * Number of bits of a value below its highest one-bit that select the bucket within a power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKET_COUNT = 1 << LatencyHistogram.SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = 64 * LatencyHistogram.SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * @param aNanos latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long aNanos) {
+        long tmpNanos = Math.max(0L, aNanos);
+        this.bucketCounts.incrementAndGet(LatencyHistogram.getBucket(tmpNanos));
+        this.count.increment();
+        this.sum.add(tmpNanos);
+        this.max.accumulate(tmpNanos);
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return sum of all recorded latencies in nanoseconds
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * @return largest recorded latency in nanoseconds
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Returns an upper bound of the given percentile, which exceeds the exact value by at most 12.5 %.
+     *
+     * @param aPercentile percentile between 0 and 100
+     * @return latency in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentile(double aPercentile) {
+        long[] tmpCounts = new long[LatencyHistogram.BUCKET_COUNT];
+        long tmpTotal = 0;
+        for (int i = 0; i < tmpCounts.length; i++) {
+            tmpCounts[i] = this.bucketCounts.get(i);
+            tmpTotal += tmpCounts[i];
+        }
+        if (tmpTotal == 0) {
+            return 0L;
+        }
+        long tmpRank = Math.max(1L, (long) Math.ceil(aPercentile / 100.0 * tmpTotal));
+        long tmpSeen = 0;
+        for (int i = 0; i < tmpCounts.length; i++) {
+            tmpSeen += tmpCounts[i];
+            if (tmpSeen >= tmpRank) {
+                return Math.min(LatencyHistogram.getUpperBound(i), this.getMax());
+            }
+        }
+        return this.getMax();
+    }
+
+    /**
+     * Values below eight have a bucket of their own, larger ones share a bucket with the values that agree in the
+     * highest four bits.
+     */
+    static int getBucket(long aValue) {
+        if (aValue < LatencyHistogram.SUB_BUCKET_COUNT) {
+            return (int) aValue;
+        }
+        int tmpExponent = 63 - Long.numberOfLeadingZeros(aValue);
+        int tmpSubBucket = (int) (aValue >>> (tmpExponent - LatencyHistogram.SUB_BUCKET_BITS)) & (LatencyHistogram.SUB_BUCKET_COUNT - 1);
+        return (tmpExponent - LatencyHistogram.SUB_BUCKET_BITS + 1) * LatencyHistogram.SUB_BUCKET_COUNT + tmpSubBucket;
+    }
+
+    /**
+     * @return largest value that falls into the given bucket
+     */
+    static long getUpperBound(int aBucket) {
+        if (aBucket < LatencyHistogram.SUB_BUCKET_COUNT) {
+            return aBucket;
+        }
+        int tmpExponent = aBucket / LatencyHistogram.SUB_BUCKET_COUNT + LatencyHistogram.SUB_BUCKET_BITS - 1;
+        long tmpSubBucket = aBucket % LatencyHistogram.SUB_BUCKET_COUNT;
+        long tmpShift = tmpExponent - LatencyHistogram.SUB_BUCKET_BITS;
+        //the bucket covers [(8 + sub) << shift, (9 + sub) << shift), overflow for the last buckets is capped
+        long tmpUpperBound = ((LatencyHistogram.SUB_BUCKET_COUNT + tmpSubBucket + 1) << tmpShift) - 1;
+        return tmpUpperBound < 0 ? Long.MAX_VALUE : tmpUpperBound;
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.fingerprint.ICountFingerprint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Approximate nearest neighbour index over unfolded, sparse circular fingerprints using MinHash locality-sensitive
+ * hashing.
+ * <p>
+ * A sparse fingerprint is the sorted set of distinct feature hash codes of a molecule, as returned by
+ * {@link #getFeatures(ICountFingerprint)} for the count fingerprint of a CircularFingerprinter. Unlike the folded
+ * bit fingerprint, no information is lost through bit collisions, and the Tanimoto similarity of two sparse
+ * fingerprints is the Jaccard similarity of their feature sets.
+ * <p>
+ * Every fingerprint is summarised by bands x rows MinHash values. Two fingerprints with Jaccard similarity s agree
+ * in one MinHash value with probability s, so they share at least one band, and become candidates of each other,
+ * with probability 1 - (1 - s^rows)^bands. Candidates are looked up per band in sorted bucket tables and re-scored
+ * exactly, so every reported hit and score is exact; only hits may be missed. {@link Builder#forRecall(double,
+ * double, int)} chooses bands and rows for a target recall at a similarity threshold, and the exhaustive search
+ * methods provide the brute force reference the recall is measured against.
+ * <p>
+ * Instances are immutable apart from the candidate statistics and can be searched concurrently.
+ */
+public final class MinHashIndex {
+    /**
+     * Collects sparse fingerprints and builds the index.
+     */
+    public static final class Builder {
+        private final int bandCount;
+
+        private final int rowCount;
+
+        private final long[] seeds;
+
+        private final List<String> ids = new ArrayList<>();
+
+        private final List<int[]> features = new ArrayList<>();
+
+        private final List<int[]> bandKeys = new ArrayList<>();
+
+        /**
+         * @param aBandCount number of bands, i.e. bucket tables
+         * @param aRowCount number of MinHash values combined per band
+         * @param aSeed seed of the hash functions, queries are hashed with the same functions
+         * @throws IllegalArgumentException if band or row count is not positive
+         */
+        public Builder(int aBandCount, int aRowCount, long aSeed) {
+            if (aBandCount < 1 || aRowCount < 1) {
+                throw new IllegalArgumentException("Band and row count must be positive.");
+            }
+            this.bandCount = aBandCount;
+            this.rowCount = aRowCount;
+            SplittableRandom tmpRandom = new SplittableRandom(aSeed);
+            this.seeds = new long[aBandCount * aRowCount];
+            for (int i = 0; i < this.seeds.length; i++) {
+                this.seeds[i] = tmpRandom.nextLong();
+            }
+        }
+
+        /**
+         * Creates a builder with the largest row count whose expected recall at the given similarity threshold
+         * reaches the target with at most the given number of hash functions in total. More rows per band produce
+         * fewer false candidates but need more bands for the same recall.
+         *
+         * @param aThreshold similarity threshold of the searches, between 0 and 1 exclusive
+         * @param aRecall expected fraction of the hits at the threshold that are found, between 0 and 1 exclusive
+         * @param aMaxHashCount maximum of bands x rows, i.e. MinHash values per fingerprint
+         * @return builder with the chosen parameters and a fixed seed
+         * @throws IllegalArgumentException if a parameter is out of range
+         */
+        public static Builder forRecall(double aThreshold, double aRecall, int aMaxHashCount) {
+            if (!(aThreshold > 0.0 && aThreshold < 1.0) || !(aRecall > 0.0 && aRecall < 1.0) || aMaxHashCount < 1) {
+                throw new IllegalArgumentException("Threshold and recall must be between 0 and 1, the hash count positive.");
+            }
+            //one row per band with as many bands as allowed is the fallback with the highest recall
+            int tmpBands = aMaxHashCount;
+            int tmpRows = 1;
+            for (int tmpRowCandidate = 1; tmpRowCandidate <= aMaxHashCount; tmpRowCandidate++) {
+                double tmpBandProbability = Math.pow(aThreshold, tmpRowCandidate);
+                int tmpBandCandidate = (int) Math.ceil(Math.log(1.0 - aRecall) / Math.log1p(-tmpBandProbability));
+                if ((long) tmpBandCandidate * tmpRowCandidate > aMaxHashCount) {
+                    break;
+                }
+                tmpBands = tmpBandCandidate;
+                tmpRows = tmpRowCandidate;
+            }
+            return new Builder(tmpBands, tmpRows, MinHashIndex.DEFAULT_SEED);
+        }
+
+        /**
+         * Adds a sparse fingerprint to the index.
+         *
+         * @param anId identifier of the fingerprint, e.g. the COCONUT_ID of the molecule
+         * @param aFeatures sorted, distinct feature hash codes as returned by
+         *                  {@link MinHashIndex#getFeatures(ICountFingerprint)}, not copied and must not be modified afterwards
+         * @return this builder
+         */
+        public Builder add(String anId, int[] aFeatures) {
+            this.ids.add(anId);
+            this.features.add(aFeatures);
+            this.bandKeys.add(MinHashIndex.getBandKeys(aFeatures, this.seeds, this.bandCount, this.rowCount));
+            return this;
+        }
+
+        /**
+         * @return number of fingerprints added so far
+         */
+        public int size() {
+            return this.ids.size();
+        }
+
+        /**
+         * @return new index over all added fingerprints
+         */
+        public MinHashIndex build() {
+            int tmpCount = this.ids.size();
+            long[][] tmpBuckets = new long[this.bandCount][tmpCount];
+            for (int i = 0; i < tmpCount; i++) {
+                int[] tmpKeys = this.bandKeys.get(i);
+                for (int tmpBand = 0; tmpBand < this.bandCount; tmpBand++) {
+                    tmpBuckets[tmpBand][i] = MinHashIndex.toBucketEntry(tmpKeys[tmpBand], i);
+                }
+            }
+            for (long[] tmpBucket : tmpBuckets) {
+                Arrays.sort(tmpBucket);
+            }
+            return new MinHashIndex(this.bandCount, this.rowCount, this.seeds, tmpBuckets,
+                    this.features.toArray(new int[tmpCount][]), this.ids.toArray(new String[tmpCount]));
+        }
+    }
+
+    /**
+     * Seed of the hash functions of builders created by {@link Builder#forRecall(double, double, int)}.
+     */
+    public static final long DEFAULT_SEED = 0x5EED_C0C0_4E55L;
+
+    private final int bandCount;
+
+    private final int rowCount;
+
+    private final long[] seeds;
+
+    /**
+     * Per band, the entries (band key &lt;&lt; 32 | insertion index) in ascending order.
+     */
+    private final long[][] buckets;
+
+    private final int[][] features;
+
+    private final String[] ids;
+
+    private final LongAdder queryCount = new LongAdder();
+
+    private final LongAdder candidateCount = new LongAdder();
+
+    private MinHashIndex(int aBandCount, int aRowCount, long[] aSeeds, long[][] aBuckets, int[][] aFeatures, String[] anIds) {
+        this.bandCount = aBandCount;
+        this.rowCount = aRowCount;
+        this.seeds = aSeeds;
+        this.buckets = aBuckets;
+        this.features = aFeatures;
+        this.ids = anIds;
+    }
+
+    /**
+     * Converts a count fingerprint into a sparse fingerprint, i.e. the sorted distinct hash codes of its features.
+     * The counts are dropped.
+     *
+     * @param aFingerprint count fingerprint, e.g. from CircularFingerprinter.getCountFingerprint()
+     * @return sorted feature hash codes without duplicates
+     */
+    public static int[] getFeatures(ICountFingerprint aFingerprint) {
+        int[] tmpFeatures = new int[aFingerprint.numOfPopulatedbins()];
+        for (int i = 0; i < tmpFeatures.length; i++) {
+            tmpFeatures[i] = aFingerprint.getHash(i);
+        }
+        Arrays.sort(tmpFeatures);
+        int tmpDistinct = 0;
+        for (int i = 0; i < tmpFeatures.length; i++) {
+            if (i == 0 || tmpFeatures[i] != tmpFeatures[tmpDistinct - 1]) {
+                tmpFeatures[tmpDistinct++] = tmpFeatures[i];
+            }
+        }
+        return tmpDistinct == tmpFeatures.length ? tmpFeatures : Arrays.copyOf(tmpFeatures, tmpDistinct);
+    }
+
+    /**
+     * Tanimoto (Jaccard) similarity of two sparse fingerprints, 0 if both are empty.
+     *
+     * @param aFeatures sorted distinct feature hash codes
+     * @param anOtherFeatures sorted distinct feature hash codes
+     * @return the similarity
+     */
+    public static double getTanimoto(int[] aFeatures, int[] anOtherFeatures) {
+        int tmpCommon = 0;
+        int i = 0;
+        int j = 0;
+        while (i < aFeatures.length && j < anOtherFeatures.length) {
+            int tmpComparison = Integer.compare(aFeatures[i], anOtherFeatures[j]);
+            if (tmpComparison == 0) {
+                tmpCommon++;
+                i++;
+                j++;
+            } else if (tmpComparison < 0) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        int tmpUnion = aFeatures.length + anOtherFeatures.length - tmpCommon;
+        return tmpUnion == 0 ? 0.0 : (double) tmpCommon / tmpUnion;
+    }
+
+    /**
+     * @return number of fingerprints in the index
+     */
+    public int size() {
+        return this.ids.length;
+    }
+
+    public int getBandCount() {
+        return this.bandCount;
+    }
+
+    public int getRowCount() {
+        return this.rowCount;
+    }
+
+    /**
+     * @param aSimilarity Tanimoto similarity of a query and an indexed fingerprint
+     * @return probability that the indexed fingerprint becomes a candidate of the query
+     */
+    public double getCandidateProbability(double aSimilarity) {
+        return 1.0 - Math.pow(1.0 - Math.pow(aSimilarity, this.rowCount), this.bandCount);
+    }
+
+    /**
+     * @return mean number of candidates that were re-scored exactly per approximate search so far
+     */
+    public double getMeanCandidateCount() {
+        long tmpQueries = this.queryCount.sum();
+        return tmpQueries == 0 ? 0.0 : (double) this.candidateCount.sum() / tmpQueries;
+    }
+
+    /**
+     * Returns the candidates of the query with a similarity of at least the given threshold. Hits with a
+     * similarity at the threshold are found with the probability given by {@link #getCandidateProbability(double)},
+     * more similar ones more likely.
+     *
+     * @param aQuery sorted distinct feature hash codes
+     * @param aThreshold minimum similarity, greater than 0
+     * @return hits ordered by descending similarity
+     */
+    public List<SimilarityHit> searchThreshold(int[] aQuery, double aThreshold) {
+        if (!(aThreshold > 0.0)) {
+            throw new IllegalArgumentException("Threshold must be greater than 0.");
+        }
+        List<SimilarityHit> tmpHits = new ArrayList<>();
+        for (int tmpIndex : this.getCandidates(aQuery)) {
+            double tmpScore = MinHashIndex.getTanimoto(aQuery, this.features[tmpIndex]);
+            if (tmpScore >= aThreshold) {
+                tmpHits.add(new SimilarityHit(tmpIndex, this.ids[tmpIndex], tmpScore));
+            }
+        }
+        Collections.sort(tmpHits);
+        return tmpHits;
+    }
+
+    /**
+     * Returns the k candidates most similar to the query whose similarity is at least the given threshold.
+     *
+     * @param aQuery sorted distinct feature hash codes
+     * @param aK maximum number of hits
+     * @param aThreshold minimum similarity, 0 for none
+     * @return at most k hits ordered by descending similarity, ties by insertion order
+     */
+    public List<SimilarityHit> searchTopK(int[] aQuery, int aK, double aThreshold) {
+        if (aK < 1) {
+            throw new IllegalArgumentException("k must be positive.");
+        }
+        //worst hit at the head
+        PriorityQueue<SimilarityHit> tmpBest = new PriorityQueue<>(Collections.reverseOrder());
+        for (int tmpIndex : this.getCandidates(aQuery)) {
+            double tmpScore = MinHashIndex.getTanimoto(aQuery, this.features[tmpIndex]);
+            if (tmpScore >= aThreshold) {
+                tmpBest.add(new SimilarityHit(tmpIndex, this.ids[tmpIndex], tmpScore));
+                if (tmpBest.size() > aK) {
+                    tmpBest.poll();
+                }
+            }
+        }
+        List<SimilarityHit> tmpHits = new ArrayList<>(tmpBest);
+        Collections.sort(tmpHits);
+        return tmpHits;
+    }
+
+    /**
+     * Brute force reference of {@link #searchThreshold(int[], double)} that compares the query with every indexed
+     * fingerprint. Fingerprints whose feature count rules out the threshold are skipped without comparison.
+     *
+     * @param aQuery sorted distinct feature hash codes
+     * @param aThreshold minimum similarity, greater than 0
+     * @return all hits ordered by descending similarity
+     */
+    public List<SimilarityHit> searchThresholdExhaustive(int[] aQuery, double aThreshold) {
+        if (!(aThreshold > 0.0)) {
+            throw new IllegalArgumentException("Threshold must be greater than 0.");
+        }
+        List<SimilarityHit> tmpHits = new ArrayList<>();
+        for (int i = 0; i < this.features.length; i++) {
+            int tmpSmaller = Math.min(aQuery.length, this.features[i].length);
+            int tmpLarger = Math.max(aQuery.length, this.features[i].length);
+            //the similarity cannot exceed the ratio of the feature counts
+            if (tmpSmaller < aThreshold * tmpLarger) {
+                continue;
+            }
+            double tmpScore = MinHashIndex.getTanimoto(aQuery, this.features[i]);
+            if (tmpScore >= aThreshold) {
+                tmpHits.add(new SimilarityHit(i, this.ids[i], tmpScore));
+            }
+        }
+        Collections.sort(tmpHits);
+        return tmpHits;
+    }
+
+    /**
+     * Runs an approximate threshold search for every query in parallel.
+     *
+     * @param aQueries sorted distinct feature hash codes per query
+     * @param aThreshold minimum similarity, greater than 0
+     * @return one hit list per query, in query order
+     */
+    public List<List<SimilarityHit>> searchThreshold(List<int[]> aQueries, double aThreshold) {
+        return IntStream.range(0, aQueries.size()).parallel()
+                .mapToObj(i -> this.searchThreshold(aQueries.get(i), aThreshold))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Runs an approximate top-k search for every query in parallel.
+     *
+     * @param aQueries sorted distinct feature hash codes per query
+     * @param aK maximum number of hits per query
+     * @param aThreshold minimum similarity, 0 for none
+     * @return one hit list per query, in query order
+     */
+    public List<List<SimilarityHit>> searchTopK(List<int[]> aQueries, int aK, double aThreshold) {
+        return IntStream.range(0, aQueries.size()).parallel()
+                .mapToObj(i -> this.searchTopK(aQueries.get(i), aK, aThreshold))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Runs an exhaustive threshold search for every query in parallel.
+     *
+     * @param aQueries sorted distinct feature hash codes per query
+     * @param aThreshold minimum similarity, greater than 0
+     * @return one hit list per query, in query order
+     */
+    public List<List<SimilarityHit>> searchThresholdExhaustive(List<int[]> aQueries, double aThreshold) {
+        return IntStream.range(0, aQueries.size()).parallel()
+                .mapToObj(i -> this.searchThresholdExhaustive(aQueries.get(i), aThreshold))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Fraction of the exact hits that were found by the approximate search. Both searches must have used the same
+     * queries and threshold; since approximate hits are exact scores of a subset, counting them suffices.
+     *
+     * @param anApproximateHits result of {@link #searchThreshold(List, double)}
+     * @param anExactHits result of {@link #searchThresholdExhaustive(List, double)}
+     * @return measured recall, 1 if there are no exact hits
+     */
+    public static double getRecall(List<List<SimilarityHit>> anApproximateHits, List<List<SimilarityHit>> anExactHits) {
+        long tmpFound = 0;
+        long tmpTotal = 0;
+        for (int i = 0; i < anExactHits.size(); i++) {
+            tmpFound += anApproximateHits.get(i).size();
+            tmpTotal += anExactHits.get(i).size();
+        }
+        return tmpTotal == 0 ? 1.0 : (double) tmpFound / tmpTotal;
+    }
+
+    /**
+     * Collects the distinct insertion indices of all fingerprints sharing at least one band with the query.
+     */
+    private int[] getCandidates(int[] aQuery) {
+        int[] tmpKeys = MinHashIndex.getBandKeys(aQuery, this.seeds, this.bandCount, this.rowCount);
+        int[] tmpCandidates = new int[16];
+        int tmpCount = 0;
+        for (int tmpBand = 0; tmpBand < this.bandCount; tmpBand++) {
+            long[] tmpBucket = this.buckets[tmpBand];
+            long tmpFirst = MinHashIndex.toBucketEntry(tmpKeys[tmpBand], 0);
+            int tmpPosition = Arrays.binarySearch(tmpBucket, tmpFirst);
+            if (tmpPosition < 0) {
+                tmpPosition = -tmpPosition - 1;
+            }
+            while (tmpPosition < tmpBucket.length && (int) (tmpBucket[tmpPosition] >> 32) == tmpKeys[tmpBand]) {
+                if (tmpCount == tmpCandidates.length) {
+                    tmpCandidates = Arrays.copyOf(tmpCandidates, 2 * tmpCount);
+                }
+                tmpCandidates[tmpCount++] = (int) tmpBucket[tmpPosition++];
+            }
+        }
+        //a candidate sharing several bands is re-scored once
+        Arrays.sort(tmpCandidates, 0, tmpCount);
+        int tmpDistinct = 0;
+        for (int i = 0; i < tmpCount; i++) {
+            if (tmpDistinct == 0 || tmpCandidates[i] != tmpCandidates[tmpDistinct - 1]) {
+                tmpCandidates[tmpDistinct++] = tmpCandidates[i];
+            }
+        }
+        this.queryCount.increment();
+        this.candidateCount.add(tmpDistinct);
+        return Arrays.copyOf(tmpCandidates, tmpDistinct);
+    }
+
+    /**
+     * Computes the MinHash signature of the given features and combines the rows of every band into one key.
+     */
+    private static int[] getBandKeys(int[] aFeatures, long[] aSeeds, int aBandCount, int aRowCount) {
+        long[] tmpSignature = new long[aSeeds.length];
+        Arrays.fill(tmpSignature, Long.MAX_VALUE);
+        for (int tmpFeature : aFeatures) {
+            for (int i = 0; i < aSeeds.length; i++) {
+                long tmpHash = MinHashIndex.mix(tmpFeature ^ aSeeds[i]);
+                if (tmpHash < tmpSignature[i]) {
+                    tmpSignature[i] = tmpHash;
+                }
+            }
+        }
+        int[] tmpKeys = new int[aBandCount];
+        for (int tmpBand = 0; tmpBand < aBandCount; tmpBand++) {
+            long tmpKey = tmpBand;
+            for (int tmpRow = 0; tmpRow < aRowCount; tmpRow++) {
+                tmpKey = MinHashIndex.mix(tmpKey * 31L + tmpSignature[tmpBand * aRowCount + tmpRow]);
+            }
+            tmpKeys[tmpBand] = (int) (tmpKey >>> 32);
+        }
+        return tmpKeys;
+    }
+
+    private static long toBucketEntry(int aKey, int anIndex) {
+        return ((long) aKey << 32) | anIndex;
+    }
+
+    /**
+     * Finalisation step of the 64-bit MurmurHash3.
+     */
+    private static long mix(long aValue) {
+        long tmpValue = (aValue ^ (aValue >>> 33)) * 0xff51afd7ed558ccdL;
+        tmpValue = (tmpValue ^ (tmpValue >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return tmpValue ^ (tmpValue >>> 33);
+    }
+}
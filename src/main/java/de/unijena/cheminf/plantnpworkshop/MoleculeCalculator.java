@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.CDK;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Descriptor and fingerprint calculations of the demo classes and the molecule form each of them requires as input.
+ */
+public enum MoleculeCalculator {
+    /**
+     * PetitjeanNumberDescriptor, works on the heavy atom graph.
+     */
+    PETITJEAN_NUMBER(MoleculeForm.HYDROGEN_SUPPRESSED),
+
+    /**
+     * ZagrebIndexDescriptor, works on the heavy atom graph.
+     */
+    ZAGREB_INDEX(MoleculeForm.HYDROGEN_SUPPRESSED),
+
+    /**
+     * RuleOfFiveDescriptor, requires atom types and aromaticity.
+     */
+    RULE_OF_FIVE(MoleculeForm.HYDROGEN_SUPPRESSED),
+
+    /**
+     * ALOGPDescriptor, requires explicit hydrogens, atom types and aromaticity.
+     */
+    ALOGP(MoleculeForm.EXPLICIT_HYDROGENS),
+
+    /**
+     * PubchemFingerprinter, requires explicit hydrogens, atom types and aromaticity.
+     */
+    PUBCHEM_FINGERPRINT(MoleculeForm.EXPLICIT_HYDROGENS),
+
+    /**
+     * CircularFingerprinter (ECFP6), does its own aromaticity detection and atom typing internally, handles implicit
+     * hydrogens and does not modify the container, so it needs no preprocessing.
+     */
+    CIRCULAR_FINGERPRINT(MoleculeForm.AS_READ);
+
+    /**
+     * Revision of the way the demo classes apply the calculators, to be increased whenever a change (e.g. to the
+     * preprocessing) alters their results. Part of {@link #getVersion()}.
+     */
+    private static final int REVISION = 1;
+
+    private final MoleculeForm requiredForm;
+
+    MoleculeCalculator(MoleculeForm aRequiredForm) {
+        this.requiredForm = aRequiredForm;
+    }
+
+    /**
+     * Returns the version of this calculation, made up of the CDK version and the revision of the preprocessing.
+     * Persisted results (see {@link ResultCache}) are only valid for the same version.
+     *
+     * @return version string
+     */
+    public String getVersion() {
+        return "cdk-" + CDK.getVersion() + "/r" + MoleculeCalculator.REVISION;
+    }
+
+    /**
+     * @return the molecule form this calculation has to be applied to
+     */
+    public MoleculeForm getRequiredForm() {
+        return this.requiredForm;
+    }
+
+    /**
+     * Returns the molecule forms required by the given calculators.
+     *
+     * @param aCalculators calculators that are going to be applied
+     * @return set of required forms
+     */
+    public static Set<MoleculeForm> getRequiredForms(MoleculeCalculator... aCalculators) {
+        Set<MoleculeForm> tmpForms = EnumSet.noneOf(MoleculeForm.class);
+        for (MoleculeCalculator tmpCalculator : aCalculators) {
+            tmpForms.add(tmpCalculator.getRequiredForm());
+        }
+        return tmpForms;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and latency metrics of a molecule processing run: number of processed and skipped records, records per
+ * second, p50/p99 latency of every {@link ProcessingStage} and of whole records, and the slowest molecules by
+ * COCONUT_ID. While enabled, a progress line is logged periodically and a summary report when the metrics are closed.
+ * <p>
+ * Stages are timed by the processing code like this:
+ * <pre>
+ * long tmpStart = aMetrics.start();
+ * ...
+ * aMetrics.record(ProcessingStage.ALOGP, tmpStart);
+ * </pre>
+ * The disabled instance returned by {@link #disabled()} does not even read the clock, so instrumented code runs
+ * with negligible overhead when metrics are switched off. All methods are thread-safe.
+ */
+public final class PipelineMetrics implements Closeable {
+    /**
+     * Number of slowest molecules listed in the summary.
+     */
+    public static final int SLOWEST_MOLECULE_COUNT = 10;
+
+    private static final PipelineMetrics DISABLED = new PipelineMetrics();
+
+    private static final Comparator<SlowMolecule> BY_DURATION = Comparator.comparingLong(aMolecule -> aMolecule.nanos);
+
+    private final boolean enabled;
+
+    private final PrintStream log;
+
+    private final long startNanos;
+
+    private final LatencyHistogram[] stageHistograms;
+
+    private final LatencyHistogram recordHistogram;
+
+    private final LongAdder skippedRecordCount;
+
+    /**
+     * Min-heap of the slowest molecules, guarded by itself.
+     */
+    private final PriorityQueue<SlowMolecule> slowestMolecules;
+
+    /**
+     * Duration of the fastest of the slowest molecules once the heap is full, lets faster molecules skip the lock.
+     */
+    private volatile long slowMoleculeThreshold;
+
+    private final ScheduledExecutorService progressReporter;
+
+    /**
+     * Creates the disabled instance.
+     */
+    private PipelineMetrics() {
+        this.enabled = false;
+        this.log = null;
+        this.startNanos = 0L;
+        this.stageHistograms = null;
+        this.recordHistogram = null;
+        this.skippedRecordCount = null;
+        this.slowestMolecules = null;
+        this.progressReporter = null;
+    }
+
+    /**
+     * Creates enabled metrics and starts the periodic progress log.
+     *
+     * @param aLog receives the progress lines and the summary report
+     * @param aProgressIntervalSeconds seconds between two progress lines, no progress is logged if not positive
+     */
+    public PipelineMetrics(PrintStream aLog, long aProgressIntervalSeconds) {
+        this.enabled = true;
+        this.log = aLog;
+        this.startNanos = System.nanoTime();
+        this.stageHistograms = new LatencyHistogram[ProcessingStage.values().length];
+        for (int i = 0; i < this.stageHistograms.length; i++) {
+            this.stageHistograms[i] = new LatencyHistogram();
+        }
+        this.recordHistogram = new LatencyHistogram();
+        this.skippedRecordCount = new LongAdder();
+        this.slowestMolecules = new PriorityQueue<>(PipelineMetrics.SLOWEST_MOLECULE_COUNT + 1, PipelineMetrics.BY_DURATION);
+        if (aProgressIntervalSeconds > 0) {
+            this.progressReporter = Executors.newSingleThreadScheduledExecutor(aRunnable -> {
+                Thread tmpThread = new Thread(aRunnable, "metrics-progress");
+                tmpThread.setDaemon(true);
+                return tmpThread;
+            });
+            this.progressReporter.scheduleAtFixedRate(() -> this.log.println(this.getProgress()),
+                    aProgressIntervalSeconds, aProgressIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.progressReporter = null;
+        }
+    }
+
+    /**
+     * Returns the metrics configured by the system properties 'plantnpworkshop.metrics' (true to enable) and
+     * 'plantnpworkshop.metrics.interval' (seconds between progress lines, default 10), logging to System.err so
+     * the results on System.out are not interleaved.
+     *
+     * @return enabled metrics or the disabled instance
+     */
+    public static PipelineMetrics fromSystemProperties() {
+        if (!Boolean.getBoolean("plantnpworkshop.metrics")) {
+            return PipelineMetrics.disabled();
+        }
+        return new PipelineMetrics(System.err, Long.getLong("plantnpworkshop.metrics.interval", 10L));
+    }
+
+    /**
+     * @return metrics that record nothing
+     */
+    public static PipelineMetrics disabled() {
+        return PipelineMetrics.DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * @return start time to pass to {@link #record(ProcessingStage, long)}, 0 if disabled
+     */
+    public long start() {
+        return this.enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records the duration of a stage.
+     *
+     * @param aStage the stage
+     * @param aStartNanos value returned by {@link #start()} when the stage began
+     */
+    public void record(ProcessingStage aStage, long aStartNanos) {
+        if (this.enabled) {
+            this.stageHistograms[aStage.ordinal()].record(System.nanoTime() - aStartNanos);
+        }
+    }
+
+    /**
+     * Records the completion of a record, from the start of parsing to the end of processing.
+     *
+     * @param anId COCONUT_ID of the molecule, may be null
+     * @param aStartNanos value returned by {@link #start()} when parsing began
+     */
+    public void recordMolecule(String anId, long aStartNanos) {
+        if (!this.enabled) {
+            return;
+        }
+        long tmpNanos = System.nanoTime() - aStartNanos;
+        this.recordHistogram.record(tmpNanos);
+        if (tmpNanos <= this.slowMoleculeThreshold) {
+            return;
+        }
+        synchronized (this.slowestMolecules) {
+            this.slowestMolecules.add(new SlowMolecule(anId, tmpNanos));
+            if (this.slowestMolecules.size() > PipelineMetrics.SLOWEST_MOLECULE_COUNT) {
+                this.slowestMolecules.poll();
+                this.slowMoleculeThreshold = this.slowestMolecules.peek().nanos;
+            }
+        }
+    }
+
+    /**
+     * Counts a record that could not be parsed and was skipped.
+     */
+    public void recordSkipped() {
+        if (this.enabled) {
+            this.skippedRecordCount.increment();
+        }
+    }
+
+    /**
+     * @return histogram of the given stage, null if disabled
+     */
+    public LatencyHistogram getHistogram(ProcessingStage aStage) {
+        return this.enabled ? this.stageHistograms[aStage.ordinal()] : null;
+    }
+
+    /**
+     * @return one-line progress report: processed and skipped records, records per second and record latency
+     */
+    public String getProgress() {
+        if (!this.enabled) {
+            return "Metrics disabled";
+        }
+        long tmpCount = this.recordHistogram.getCount();
+        return String.format(Locale.ROOT, "[metrics] %d records processed (%.1f/s), %d skipped, record latency p50 %s, p99 %s",
+                tmpCount, this.getRecordsPerSecond(tmpCount), this.skippedRecordCount.sum(),
+                PipelineMetrics.formatNanos(this.recordHistogram.getPercentile(50)),
+                PipelineMetrics.formatNanos(this.recordHistogram.getPercentile(99)));
+    }
+
+    /**
+     * @return multi-line summary report: progress line, per-stage latencies and the slowest molecules
+     */
+    public String getSummary() {
+        if (!this.enabled) {
+            return "Metrics disabled";
+        }
+        String tmpNewLine = System.lineSeparator();
+        StringBuilder tmpSummary = new StringBuilder(this.getProgress()).append(tmpNewLine);
+        tmpSummary.append(String.format(Locale.ROOT, "[metrics] %-22s %10s %10s %10s %10s %12s",
+                "stage", "count", "p50", "p99", "max", "total")).append(tmpNewLine);
+        for (ProcessingStage tmpStage : ProcessingStage.values()) {
+            LatencyHistogram tmpHistogram = this.stageHistograms[tmpStage.ordinal()];
+            if (tmpHistogram.getCount() == 0) {
+                continue;
+            }
+            tmpSummary.append(String.format(Locale.ROOT, "[metrics] %-22s %10d %10s %10s %10s %12s",
+                    tmpStage, tmpHistogram.getCount(), PipelineMetrics.formatNanos(tmpHistogram.getPercentile(50)),
+                    PipelineMetrics.formatNanos(tmpHistogram.getPercentile(99)),
+                    PipelineMetrics.formatNanos(tmpHistogram.getMax()),
+                    PipelineMetrics.formatNanos(tmpHistogram.getSum()))).append(tmpNewLine);
+        }
+        List<SlowMolecule> tmpSlowest;
+        synchronized (this.slowestMolecules) {
+            tmpSlowest = new ArrayList<>(this.slowestMolecules);
+        }
+        tmpSlowest.sort(PipelineMetrics.BY_DURATION.reversed());
+        tmpSummary.append("[metrics] slowest molecules:").append(tmpNewLine);
+        for (SlowMolecule tmpMolecule : tmpSlowest) {
+            tmpSummary.append("[metrics]     ").append(tmpMolecule.id).append(" ")
+                    .append(PipelineMetrics.formatNanos(tmpMolecule.nanos)).append(tmpNewLine);
+        }
+        return tmpSummary.toString();
+    }
+
+    /**
+     * Stops the progress log and logs the summary report.
+     */
+    @Override
+    public void close() {
+        if (!this.enabled) {
+            return;
+        }
+        if (this.progressReporter != null) {
+            this.progressReporter.shutdownNow();
+        }
+        this.log.print(this.getSummary());
+        this.log.flush();
+    }
+
+    private double getRecordsPerSecond(long aCount) {
+        double tmpSeconds = (System.nanoTime() - this.startNanos) / 1e9;
+        return tmpSeconds > 0 ? aCount / tmpSeconds : 0.0;
+    }
+
+    private static String formatNanos(long aNanos) {
+        if (aNanos < 1_000_000L) {
+            return String.format(Locale.ROOT, "%.1f us", aNanos / 1e3);
+        } else if (aNanos < 1_000_000_000L) {
+            return String.format(Locale.ROOT, "%.1f ms", aNanos / 1e6);
+        }
+        return String.format(Locale.ROOT, "%.2f s", aNanos / 1e9);
+    }
+
+    /**
+     * Entry of the slowest molecule list.
+     */
+    private static final class SlowMolecule {
+        private final String id;
+
+        private final long nanos;
+
+        private SlowMolecule(String anId, long aNanos) {
+            this.id = anId;
+            this.nanos = aNanos;
+        }
+    }
+}
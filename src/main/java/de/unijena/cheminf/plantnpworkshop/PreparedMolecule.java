@@ -0,0 +1,185 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.atomtype.CDKAtomTypeMatcher;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IAtomType;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+import org.openscience.cdk.tools.manipulator.AtomTypeManipulator;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Shared preprocessing stage that derives the {@link MoleculeForm}s of one molecule required by a set of
+ * {@link MoleculeCalculator}s.
+ * <p>
+ * Atom types are perceived and aromaticity is detected once, on the hydrogen-suppressed form. The explicit-hydrogen
+ * form is derived from it by adding the hydrogen atoms and typing only those, the aromaticity flags are carried over.
+ * Forms are computed lazily on first request. A form is derived in place when no declared form still needs its
+ * predecessor and from a copy otherwise, so no calculator ever sees a container that is mutated for another one.
+ * <p>
+ * Instances are not thread-safe and are meant to be used for a single molecule on a single worker thread.
+ */
+public final class PreparedMolecule {
+    private final Set<MoleculeForm> declaredForms;
+
+    private final CalculatorRegistry registry;
+
+    private final IAtomContainer asRead;
+
+    private IAtomContainer hydrogenSuppressed;
+
+    private IAtomContainer explicitHydrogens;
+
+    private PipelineMetrics metrics = PipelineMetrics.disabled();
+
+    /**
+     * @param aMolecule molecule as read from the SD file, it is modified in place if the as-read form is not declared
+     * @param aDeclaredForms all forms that are going to be requested
+     * @param aRegistry registry of the current thread, provides the aromaticity model
+     */
+    public PreparedMolecule(IAtomContainer aMolecule, Set<MoleculeForm> aDeclaredForms, CalculatorRegistry aRegistry) {
+        this.asRead = aMolecule;
+        this.declaredForms = EnumSet.copyOf(aDeclaredForms);
+        this.registry = aRegistry;
+    }
+
+    /**
+     * Prepares the given molecule for the given calculators.
+     *
+     * @param aMolecule molecule as read from the SD file
+     * @param aRegistry registry of the current thread
+     * @param aCalculators calculators that are going to be applied
+     * @return prepared molecule that declares exactly the forms required by the calculators
+     */
+    public static PreparedMolecule forCalculators(IAtomContainer aMolecule, CalculatorRegistry aRegistry,
+            MoleculeCalculator... aCalculators) {
+        return new PreparedMolecule(aMolecule, MoleculeCalculator.getRequiredForms(aCalculators), aRegistry);
+    }
+
+    /**
+     * Sets the metrics that the preprocessing stages {@link ProcessingStage#PERCEPTION} and
+     * {@link ProcessingStage#EXPLICIT_HYDROGENS} are reported to.
+     *
+     * @param aMetrics the metrics, disabled by default
+     */
+    public void setMetrics(PipelineMetrics aMetrics) {
+        this.metrics = aMetrics;
+    }
+
+    /**
+     * Returns the input form of the given calculator.
+     *
+     * @param aCalculator the calculator
+     * @return the molecule in the form required by the calculator
+     * @throws CDKException if preprocessing fails
+     */
+    public IAtomContainer getFor(MoleculeCalculator aCalculator) throws CDKException {
+        return this.get(aCalculator.getRequiredForm());
+    }
+
+    /**
+     * Returns the requested form, computing it on first request.
+     *
+     * @param aForm requested form, must be one of the declared forms
+     * @return the molecule in the requested form
+     * @throws CDKException if preprocessing fails
+     * @throws IllegalStateException if the form was not declared
+     */
+    public IAtomContainer get(MoleculeForm aForm) throws CDKException {
+        this.checkDeclared(aForm);
+        switch (aForm) {
+            case AS_READ:
+                return this.asRead;
+            case HYDROGEN_SUPPRESSED:
+                return this.getHydrogenSuppressed();
+            case EXPLICIT_HYDROGENS:
+                return this.getExplicitHydrogens();
+            default:
+                throw new IllegalArgumentException("Unknown molecule form " + aForm);
+        }
+    }
+
+    /**
+     * Perceives atom types and aromaticity on the as-read molecule or on a copy of it if the as-read form is
+     * still needed.
+     */
+    private IAtomContainer getHydrogenSuppressed() throws CDKException {
+        if (this.hydrogenSuppressed == null) {
+            long tmpStart = this.metrics.start();
+            IAtomContainer tmpMolecule = this.declaredForms.contains(MoleculeForm.AS_READ)
+                    ? PreparedMolecule.copy(this.asRead) : this.asRead;
+            AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(tmpMolecule);
+            this.registry.getAromaticity().apply(tmpMolecule);
+            this.hydrogenSuppressed = tmpMolecule;
+            this.metrics.record(ProcessingStage.PERCEPTION, tmpStart);
+        }
+        return this.hydrogenSuppressed;
+    }
+
+    /**
+     * Adds explicit hydrogens to the hydrogen-suppressed form or to a copy of it if that form is still needed. Only
+     * the new hydrogen atoms are typed, heavy atom types and aromaticity flags do not change.
+     */
+    private IAtomContainer getExplicitHydrogens() throws CDKException {
+        if (this.explicitHydrogens == null) {
+            IAtomContainer tmpSource = this.getHydrogenSuppressed();
+            long tmpStart = this.metrics.start();
+            IAtomContainer tmpMolecule = this.declaredForms.contains(MoleculeForm.HYDROGEN_SUPPRESSED)
+                    ? PreparedMolecule.copy(tmpSource) : tmpSource;
+            AtomContainerManipulator.convertImplicitToExplicitHydrogens(tmpMolecule);
+            CDKAtomTypeMatcher tmpMatcher = CDKAtomTypeMatcher.getInstance(tmpMolecule.getBuilder());
+            for (IAtom tmpAtom : tmpMolecule.atoms()) {
+                if (tmpAtom.getAtomTypeName() == null) {
+                    IAtomType tmpType = tmpMatcher.findMatchingAtomType(tmpMolecule, tmpAtom);
+                    if (tmpType != null) {
+                        AtomTypeManipulator.configure(tmpAtom, tmpType);
+                    }
+                }
+            }
+            this.explicitHydrogens = tmpMolecule;
+            this.metrics.record(ProcessingStage.EXPLICIT_HYDROGENS, tmpStart);
+        }
+        return this.explicitHydrogens;
+    }
+
+    private void checkDeclared(MoleculeForm aForm) {
+        if (!this.declaredForms.contains(aForm)) {
+            throw new IllegalStateException("Molecule form " + aForm + " was not declared.");
+        }
+    }
+
+    private static IAtomContainer copy(IAtomContainer aMolecule) throws CDKException {
+        try {
+            return aMolecule.clone();
+        } catch (CloneNotSupportedException anException) {
+            throw new CDKException("Could not copy molecule.", anException);
+        }
+    }
+}
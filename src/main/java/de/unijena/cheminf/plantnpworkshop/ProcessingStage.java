@@ -0,0 +1,72 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+/**
+ * Stages of the molecule processing loops of the demo classes, timed by {@link PipelineMetrics}.
+ */
+public enum ProcessingStage {
+    /**
+     * Parsing of one SDF record, done by {@link SDFRecordPipeline}.
+     */
+    PARSING,
+
+    /**
+     * Atom type perception and aromaticity detection, see {@link MoleculeForm#HYDROGEN_SUPPRESSED}.
+     */
+    PERCEPTION,
+
+    /**
+     * Addition and typing of explicit hydrogens, see {@link MoleculeForm#EXPLICIT_HYDROGENS}.
+     */
+    EXPLICIT_HYDROGENS,
+
+    PETITJEAN_NUMBER,
+
+    ZAGREB_INDEX,
+
+    RULE_OF_FIVE,
+
+    ALOGP,
+
+    PUBCHEM_FINGERPRINT,
+
+    CIRCULAR_FINGERPRINT,
+
+    /**
+     * Tanimoto similarity calculations of one molecule.
+     */
+    TANIMOTO,
+
+    /**
+     * SMILES generation, all flavors of one molecule.
+     */
+    SMILES,
+
+    /**
+     * Depiction of one molecule or contact sheet, including image encoding.
+     */
+    DEPICTION;
+}
@@ -0,0 +1,395 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.fingerprint.BitSetFingerprint;
+import org.openscience.cdk.fingerprint.IBitFingerprint;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smiles.SmiFlavor;
+import org.openscience.cdk.smiles.SmilesGenerator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent, size-bounded cache of descriptor and fingerprint results, for incremental runs over successive
+ * COCONUT releases in which most records do not change.
+ * <p>
+ * Results are keyed by a structure key, the unique SMILES of the molecule as read (SmiFlavor.Unique |
+ * SmiFlavor.AtomicMass). Stereochemistry is not part of the key since none of the cached calculations depends on it.
+ * Every structure has one entry holding the results of all calculators that were applied to it, so the maximum
+ * number of entries counts structures, not results. On a hit the calculation, and the preprocessing it would have
+ * required, is skipped entirely. When the maximum number of entries is exceeded, the least recently used structures
+ * are evicted with all their results. The cache file is loaded on construction and written on {@link #close()};
+ * results of other calculator versions (see {@link MoleculeCalculator#getVersion()}) are dropped on loading.
+ * <p>
+ * All methods are thread-safe, so one cache can be shared by all pipeline workers.
+ */
+public final class ResultCache implements Closeable {
+    /**
+     * Calculation whose result is cached.
+     *
+     * @param <T> result type
+     */
+    @FunctionalInterface
+    public interface Calculation<T> {
+        T calculate() throws CDKException;
+    }
+
+    /**
+     * First bytes of every cache file.
+     */
+    private static final int MAGIC = 0x434e5052;
+
+    /**
+     * Version of the file layout. Version 3 stores one entry per structure with the results of all calculators, keys
+     * as length-prefixed UTF-8 bytes.
+     */
+    private static final int FORMAT_VERSION = 3;
+
+    /**
+     * Flavor of the SMILES used as structure key.
+     */
+    private static final SmilesGenerator KEY_GENERATOR = new SmilesGenerator(SmiFlavor.Unique | SmiFlavor.AtomicMass);
+
+    private final Path file;
+
+    private final int maxEntries;
+
+    /**
+     * Results per structure key, indexed by {@link MoleculeCalculator#ordinal()}, null for results not calculated yet.
+     */
+    private final LinkedHashMap<String, long[][]> entries;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    /**
+     * Creates a cache that is only held in memory and calculates every result, used when caching is switched off.
+     */
+    private ResultCache() {
+        this.file = null;
+        this.maxEntries = 0;
+        this.entries = null;
+    }
+
+    /**
+     * Opens a cache file, loading its entries if it exists.
+     *
+     * @param aFile cache file, created on {@link #close()} if it does not exist
+     * @param aMaxEntries maximum number of cached structures
+     * @throws IOException if an existing file cannot be read
+     */
+    public ResultCache(Path aFile, int aMaxEntries) throws IOException {
+        if (aMaxEntries < 1) {
+            throw new IllegalArgumentException("Maximum number of entries must be positive.");
+        }
+        this.file = aFile;
+        this.maxEntries = aMaxEntries;
+        //access order, so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, long[][]> anEldest) {
+                boolean tmpEvict = this.size() > ResultCache.this.maxEntries;
+                if (tmpEvict) {
+                    ResultCache.this.evictionCount++;
+                }
+                return tmpEvict;
+            }
+        };
+        if (Files.exists(aFile)) {
+            this.load();
+        }
+    }
+
+    /**
+     * Returns a cache that stores nothing and always calculates.
+     *
+     * @return disabled cache
+     */
+    public static ResultCache disabled() {
+        return new ResultCache();
+    }
+
+    /**
+     * Returns the cache configured by the system properties 'plantnpworkshop.cache' (cache file) and
+     * 'plantnpworkshop.cache.maxentries' (maximum number of structures, default 1,000,000), or a disabled cache if no
+     * file is configured.
+     *
+     * @return configured cache
+     * @throws IOException if the cache file cannot be read
+     */
+    public static ResultCache fromSystemProperties() throws IOException {
+        String tmpFile = System.getProperty("plantnpworkshop.cache");
+        if (tmpFile == null) {
+            return ResultCache.disabled();
+        }
+        return new ResultCache(Path.of(tmpFile), Integer.getInteger("plantnpworkshop.cache.maxentries", 1000000));
+    }
+
+    /**
+     * Creates the structure key of a molecule. Must be applied to the molecule as read, before any preprocessing.
+     *
+     * @param aMolecule molecule as read from the SD file
+     * @return unique SMILES of the molecule, or null if this cache is disabled
+     * @throws CDKException if no SMILES can be generated
+     */
+    public String createStructureKey(IAtomContainer aMolecule) throws CDKException {
+        return this.isEnabled() ? ResultCache.KEY_GENERATOR.create(aMolecule) : null;
+    }
+
+    /**
+     * @return true if results are cached
+     */
+    public boolean isEnabled() {
+        return this.entries != null;
+    }
+
+    /**
+     * Returns the cached values of the given calculator for the given structure or calculates and caches them.
+     *
+     * @param aCalculator the calculator
+     * @param aStructureKey key created by {@link #createStructureKey(IAtomContainer)}
+     * @param aCalculation calculates the values on a miss
+     * @return the values
+     * @throws CDKException if the calculation fails
+     */
+    public double[] getDoubles(MoleculeCalculator aCalculator, String aStructureKey, Calculation<double[]> aCalculation)
+            throws CDKException {
+        if (!this.isEnabled()) {
+            return aCalculation.calculate();
+        }
+        long[] tmpCached = this.get(aCalculator, aStructureKey);
+        if (tmpCached != null) {
+            double[] tmpValues = new double[tmpCached.length];
+            for (int i = 0; i < tmpCached.length; i++) {
+                tmpValues[i] = Double.longBitsToDouble(tmpCached[i]);
+            }
+            return tmpValues;
+        }
+        double[] tmpValues = aCalculation.calculate();
+        long[] tmpEntry = new long[tmpValues.length];
+        for (int i = 0; i < tmpValues.length; i++) {
+            tmpEntry[i] = Double.doubleToRawLongBits(tmpValues[i]);
+        }
+        this.put(aCalculator, aStructureKey, tmpEntry);
+        return tmpValues;
+    }
+
+    /**
+     * Returns the cached fingerprint of the given calculator for the given structure or calculates and caches it.
+     * Cached fingerprints have the same size() and bits as the calculated ones.
+     *
+     * @param aCalculator the calculator
+     * @param aStructureKey key created by {@link #createStructureKey(IAtomContainer)}
+     * @param aCalculation calculates the fingerprint on a miss
+     * @return the fingerprint
+     * @throws CDKException if the calculation fails
+     */
+    public IBitFingerprint getFingerprint(MoleculeCalculator aCalculator, String aStructureKey,
+            Calculation<IBitFingerprint> aCalculation) throws CDKException {
+        if (!this.isEnabled()) {
+            return aCalculation.calculate();
+        }
+        long[] tmpCached = this.get(aCalculator, aStructureKey);
+        if (tmpCached != null) {
+            BitSet tmpBits = new BitSet((int) tmpCached[0]);
+            for (int i = 1; i < tmpCached.length; i++) {
+                long tmpWord = tmpCached[i];
+                while (tmpWord != 0) {
+                    tmpBits.set(64 * (i - 1) + Long.numberOfTrailingZeros(tmpWord));
+                    tmpWord &= tmpWord - 1;
+                }
+            }
+            return new BitSetFingerprint(tmpBits);
+        }
+        IBitFingerprint tmpFingerprint = aCalculation.calculate();
+        long[] tmpWords = tmpFingerprint.asBitSet().toLongArray();
+        long[] tmpEntry = new long[tmpWords.length + 1];
+        tmpEntry[0] = tmpFingerprint.size();
+        System.arraycopy(tmpWords, 0, tmpEntry, 1, tmpWords.length);
+        this.put(aCalculator, aStructureKey, tmpEntry);
+        return tmpFingerprint;
+    }
+
+    /**
+     * @return number of lookups that were answered from the cache
+     */
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * @return number of lookups that required a calculation
+     */
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * @return number of structures evicted because the maximum size was exceeded
+     */
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * @return one-line summary of size, hits, misses and evictions
+     */
+    public synchronized String getStatistics() {
+        if (!this.isEnabled()) {
+            return "Result cache disabled";
+        }
+        long tmpLookups = this.hitCount + this.missCount;
+        return "Result cache " + this.file + ": " + this.entries.size() + " structures, " + this.hitCount + " hits, "
+                + this.missCount + " misses (" + (tmpLookups == 0 ? 0 : 100 * this.hitCount / tmpLookups)
+                + "% hit rate), " + this.evictionCount + " evictions";
+    }
+
+    /**
+     * Writes the cache file. The file is written next to the target and moved into place when complete.
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!this.isEnabled()) {
+            return;
+        }
+        Path tmpPartFile = this.file.resolveSibling(this.file.getFileName() + ".part");
+        MoleculeCalculator[] tmpCalculators = MoleculeCalculator.values();
+        try (DataOutputStream tmpOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPartFile)))) {
+            tmpOutput.writeInt(ResultCache.MAGIC);
+            tmpOutput.writeInt(ResultCache.FORMAT_VERSION);
+            //calculator names and versions in the order of the results of every entry
+            tmpOutput.writeInt(tmpCalculators.length);
+            for (MoleculeCalculator tmpCalculator : tmpCalculators) {
+                tmpOutput.writeUTF(ResultCache.getVersionedName(tmpCalculator));
+            }
+            tmpOutput.writeInt(this.entries.size());
+            //least recently used first, so the access order survives a reload
+            for (Map.Entry<String, long[][]> tmpEntry : this.entries.entrySet()) {
+                byte[] tmpKey = tmpEntry.getKey().getBytes(StandardCharsets.UTF_8);
+                tmpOutput.writeInt(tmpKey.length);
+                tmpOutput.write(tmpKey);
+                for (long[] tmpValues : tmpEntry.getValue()) {
+                    //-1 for results not calculated
+                    tmpOutput.writeInt(tmpValues == null ? -1 : tmpValues.length);
+                    if (tmpValues != null) {
+                        for (long tmpValue : tmpValues) {
+                            tmpOutput.writeLong(tmpValue);
+                        }
+                    }
+                }
+            }
+        }
+        Files.move(tmpPartFile, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized long[] get(MoleculeCalculator aCalculator, String aStructureKey) {
+        long[][] tmpEntry = this.entries.get(aStructureKey);
+        long[] tmpValue = tmpEntry == null ? null : tmpEntry[aCalculator.ordinal()];
+        if (tmpValue == null) {
+            this.missCount++;
+        } else {
+            this.hitCount++;
+        }
+        return tmpValue;
+    }
+
+    private synchronized void put(MoleculeCalculator aCalculator, String aStructureKey, long[] aValue) {
+        long[][] tmpEntry = this.entries.computeIfAbsent(aStructureKey, aKey -> new long[MoleculeCalculator.values().length][]);
+        tmpEntry[aCalculator.ordinal()] = aValue;
+    }
+
+    /**
+     * @return name and version identifying the results of a calculator in the cache file
+     */
+    private static String getVersionedName(MoleculeCalculator aCalculator) {
+        return aCalculator.name() + "@" + aCalculator.getVersion();
+    }
+
+    /**
+     * Loads the cache file, skipping results of other calculator versions and entries without any remaining result.
+     */
+    private void load() throws IOException {
+        try (DataInputStream tmpInput = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+            if (tmpInput.readInt() != ResultCache.MAGIC || tmpInput.readInt() != ResultCache.FORMAT_VERSION) {
+                throw new IOException(this.file + " is not a result cache of the current format; please delete it.");
+            }
+            //current calculator of every result position in the file, null for removed or changed calculators
+            MoleculeCalculator[] tmpCalculators = new MoleculeCalculator[tmpInput.readInt()];
+            for (int i = 0; i < tmpCalculators.length; i++) {
+                String tmpName = tmpInput.readUTF();
+                for (MoleculeCalculator tmpCalculator : MoleculeCalculator.values()) {
+                    if (ResultCache.getVersionedName(tmpCalculator).equals(tmpName)) {
+                        tmpCalculators[i] = tmpCalculator;
+                    }
+                }
+            }
+            int tmpCount = tmpInput.readInt();
+            for (int i = 0; i < tmpCount; i++) {
+                byte[] tmpKeyBytes = new byte[tmpInput.readInt()];
+                tmpInput.readFully(tmpKeyBytes);
+                long[][] tmpEntry = new long[MoleculeCalculator.values().length][];
+                boolean tmpIsEmpty = true;
+                for (MoleculeCalculator tmpCalculator : tmpCalculators) {
+                    int tmpLength = tmpInput.readInt();
+                    if (tmpLength < 0) {
+                        continue;
+                    }
+                    long[] tmpValues = new long[tmpLength];
+                    for (int j = 0; j < tmpLength; j++) {
+                        tmpValues[j] = tmpInput.readLong();
+                    }
+                    if (tmpCalculator != null) {
+                        tmpEntry[tmpCalculator.ordinal()] = tmpValues;
+                        tmpIsEmpty = false;
+                    }
+                }
+                if (!tmpIsEmpty) {
+                    this.entries.put(new String(tmpKeyBytes, StandardCharsets.UTF_8), tmpEntry);
+                }
+            }
+        }
+        //evictions while loading a cache written with a larger limit are not reported
+        this.evictionCount = 0;
+    }
+}
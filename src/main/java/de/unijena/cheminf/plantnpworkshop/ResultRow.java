@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+/**
+ * Calculated values of one molecule, laid out as described by a {@link ResultSchema}.
+ */
+public final class ResultRow {
+    private final String id;
+
+    private final String name;
+
+    private final double[] doubleValues;
+
+    private final int[] intValues;
+
+    /**
+     * @param anId COCONUT_ID of the molecule
+     * @param aName name of the molecule
+     * @param aDoubleValues values of the double columns, not copied
+     * @param anIntValues values of the int columns, not copied
+     */
+    public ResultRow(String anId, String aName, double[] aDoubleValues, int[] anIntValues) {
+        this.id = anId;
+        this.name = aName;
+        this.doubleValues = aDoubleValues;
+        this.intValues = anIntValues;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public double getDouble(int aColumn) {
+        return this.doubleValues[aColumn];
+    }
+
+    public int getInt(int aColumn) {
+        return this.intValues[aColumn];
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+/**
+ * Column layout of the rows written to a {@link ResultSink}: every row starts with the COCONUT_ID and the name of the
+ * molecule, followed by the double columns and then the int columns.
+ */
+public final class ResultSchema {
+    private final String[] doubleColumnNames;
+
+    private final String[] intColumnNames;
+
+    /**
+     * @param aDoubleColumnNames names of the double-valued columns, e.g. descriptor names
+     * @param anIntColumnNames names of the int-valued columns
+     */
+    public ResultSchema(String[] aDoubleColumnNames, String[] anIntColumnNames) {
+        this.doubleColumnNames = aDoubleColumnNames.clone();
+        this.intColumnNames = anIntColumnNames.clone();
+    }
+
+    public int getDoubleColumnCount() {
+        return this.doubleColumnNames.length;
+    }
+
+    public int getIntColumnCount() {
+        return this.intColumnNames.length;
+    }
+
+    public String getDoubleColumnName(int aColumn) {
+        return this.doubleColumnNames[aColumn];
+    }
+
+    public String getIntColumnName(int aColumn) {
+        return this.intColumnNames[aColumn];
+    }
+}
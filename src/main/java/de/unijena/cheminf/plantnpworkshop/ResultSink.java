@@ -0,0 +1,80 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Destination of per-molecule result rows, replacing the formatted console output of the demo classes for large
+ * runs. Rows are written in the order they are passed; implementations buffer them and must be closed to write the
+ * last batch.
+ */
+public interface ResultSink extends Closeable {
+    /**
+     * Appends one row.
+     *
+     * @param aRow the row, laid out as described by the schema of this sink; it may be reused by the caller afterwards
+     * @throws IOException if writing fails
+     */
+    void write(ResultRow aRow) throws IOException;
+
+    /**
+     * Returns the sink configured by the system property 'plantnpworkshop.output', or null if none is configured and
+     * results are to be printed to console. Files ending on '.csv' or '.tsv' are written as comma- or tab-separated
+     * text, all others in the binary columnar format of {@link BinaryColumnarResultSink}.
+     *
+     * @param aSchema column layout of the results
+     * @return configured sink or null
+     * @throws IOException if the output file cannot be created
+     */
+    static ResultSink fromSystemProperties(ResultSchema aSchema) throws IOException {
+        String tmpFileName = System.getProperty("plantnpworkshop.output");
+        if (tmpFileName == null) {
+            return null;
+        }
+        return ResultSink.forFile(new File(tmpFileName), aSchema);
+    }
+
+    /**
+     * Returns a sink writing to the given file, in the format selected by its extension as described for
+     * {@link #fromSystemProperties(ResultSchema)}.
+     *
+     * @param aFile the output file
+     * @param aSchema column layout of the results
+     * @return the sink
+     * @throws IOException if the output file cannot be created
+     */
+    static ResultSink forFile(File aFile, ResultSchema aSchema) throws IOException {
+        String tmpFileName = aFile.getName();
+        if (tmpFileName.endsWith(".csv")) {
+            return new DelimitedTextResultSink(aFile, aSchema, ',');
+        } else if (tmpFileName.endsWith(".tsv")) {
+            return new DelimitedTextResultSink(aFile, aSchema, '\t');
+        }
+        return new BinaryColumnarResultSink(aFile, aSchema);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.smiles.SmiFlavor;
+import org.openscience.cdk.smiles.SmilesGenerator;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Demo class for property-only passes over an SD file with {@link SDFPropertyScanner} and fetching single
+ * molecules by COCONUT_ID with {@link SDFRecordIndex}.
+ */
+public class SDFPropertyListing {
+    /**
+     * Molecule fetched by default, the Flower of Paradise.
+     */
+    private static final String DEFAULT_COCONUT_ID = "CNP0218319";
+
+    /**
+     * The COCONUT_ID, Name and atom count of every record of the COCONUT subset SD file are printed to console
+     * without building any atom container. Then one molecule is fetched by its COCONUT_ID through the record offset
+     * index, and its unique SMILES and molecular weight are printed.
+     * <p>
+     * The container is built with the builder selected by the system property 'plantnpworkshop.builder' (see
+     * {@link SDFRecordPipeline#getConfiguredBuilder()}). With '-Dplantnpworkshop.sdfindex=true', the index is
+     * saved next to the SD file and reused by later runs, as long as the SD file is unchanged.
+     *
+     * @param args the command line arguments (optional: path of another SD file and the COCONUT_ID to fetch)
+     */
+    public static void main(String[] args) throws IOException, CDKException {
+
+        //*scanning properties*
+        Path tmpSDFile = Path.of(args.length > 0 ? args[0] : "src/main/resources/COCONUTset-10.sdf");
+        String tmpCOCONUTID = args.length > 1 ? args[1] : SDFPropertyListing.DEFAULT_COCONUT_ID;
+        long tmpStart = System.nanoTime();
+        long tmpRecordCount;
+        try (SDFPropertyScanner tmpScanner = new SDFPropertyScanner(tmpSDFile)) {
+            //only the two properties are decoded, connection tables are skipped
+            tmpRecordCount = tmpScanner.scan(Arrays.asList("COCONUT_ID", "Name"), aRecord -> System.out.println(
+                    aRecord.getProperty("COCONUT_ID") + "\t" + aRecord.getProperty("Name") + "\t" + aRecord.getAtomCount() + " atoms"));
+        }
+        System.out.println("\nScanned " + tmpRecordCount + " records in " + (System.nanoTime() - tmpStart) / 1000000L + " ms");
+
+        //*fetching one molecule by COCONUT_ID*
+        tmpStart = System.nanoTime();
+        try (SDFRecordIndex tmpIndex = Boolean.getBoolean("plantnpworkshop.sdfindex")
+                ? SDFRecordIndex.forFile(tmpSDFile, "COCONUT_ID") : SDFRecordIndex.build(tmpSDFile, "COCONUT_ID")) {
+            System.out.println("Indexed " + tmpIndex.size() + " records in " + (System.nanoTime() - tmpStart) / 1000000L + " ms");
+            IChemObjectBuilder tmpBuilder = SDFRecordPipeline.getConfiguredBuilder();
+            IAtomContainer tmpMolecule = tmpIndex.getMolecule(tmpCOCONUTID, tmpBuilder);
+            if (tmpMolecule == null) {
+                System.out.println("\nNo valid record with COCONUT_ID " + tmpCOCONUTID);
+                return;
+            }
+            System.out.println("\n" + tmpMolecule.getProperty("Name") + " (" + tmpCOCONUTID + ")");
+            System.out.println("\tUnique SMILES: " + new SmilesGenerator(SmiFlavor.Unique).create(tmpMolecule));
+            System.out.println("\tMolecular weight: " + AtomContainerManipulator.getMass(tmpMolecule, AtomContainerManipulator.MolWeightIgnoreSpecified));
+        }
+    }
+}
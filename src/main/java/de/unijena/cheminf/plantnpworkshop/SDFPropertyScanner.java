@@ -0,0 +1,393 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.io.iterator.IteratingSDFReader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fast, property-only pass over an SD file.
+ * <p>
+ * The file is read through a {@link FileChannel} in large chunks and split into lines on the raw bytes. Neither the
+ * connection tables nor the values of properties that were not asked for are decoded, and no atom container is
+ * built. Every record is reported as a {@link ScannedRecord} with its byte range in the file, the requested
+ * property values and the atom count from the counts line, so jobs that only need e.g. the COCONUT_ID and Name
+ * skip parsing entirely. If a record turns out to need its structure, the container is built on demand from the
+ * byte range with {@link #readMolecule(ScannedRecord, IChemObjectBuilder)}, e.g. with the lighter
+ * SilentChemObjectBuilder (see {@link SDFRecordPipeline#getConfiguredBuilder()}).
+ * <p>
+ * Records are split at the "$$$$" delimiter lines like in {@link SDFRecordPipeline}, so record indices agree.
+ * Scanning is sequential; reading molecules uses absolute channel positions and may happen concurrently.
+ */
+public final class SDFPropertyScanner implements Closeable {
+    /**
+     * Receives the scanned records in file order.
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        void visit(ScannedRecord aRecord) throws CDKException, IOException;
+    }
+
+    /**
+     * Byte range, atom count and selected properties of one SDF record.
+     */
+    public static final class ScannedRecord {
+        private final long index;
+
+        private final long offset;
+
+        private final int length;
+
+        private final int atomCount;
+
+        private final Map<String, String> properties;
+
+        /**
+         * @param anIndex zero-based position of the record in the SD file
+         * @param anOffset position of the first byte of the record in the file
+         * @param aLength number of bytes of the record, including its delimiter line
+         * @param anAtomCount atom count from the counts line, -1 if not available (e.g. V3000)
+         * @param aProperties property values by name
+         */
+        public ScannedRecord(long anIndex, long anOffset, int aLength, int anAtomCount, Map<String, String> aProperties) {
+            this.index = anIndex;
+            this.offset = anOffset;
+            this.length = aLength;
+            this.atomCount = anAtomCount;
+            this.properties = aProperties;
+        }
+
+        public long getIndex() {
+            return this.index;
+        }
+
+        public long getOffset() {
+            return this.offset;
+        }
+
+        public int getLength() {
+            return this.length;
+        }
+
+        /**
+         * @return heavy atom count as given in the counts line, hydrogens only if they are explicit in the file
+         */
+        public int getAtomCount() {
+            return this.atomCount;
+        }
+
+        /**
+         * @param aName property name as it appears between the angle brackets of the data header
+         * @return property value, lines joined with '\n', or null if the record does not have it or it was not requested
+         */
+        public String getProperty(String aName) {
+            return this.properties.get(aName);
+        }
+
+        public Map<String, String> getProperties() {
+            return this.properties;
+        }
+    }
+
+    /**
+     * Initial size of the read buffer, it grows for longer lines.
+     */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+
+    /**
+     * @param anSDFile the SD file
+     * @throws IOException if the file cannot be opened
+     */
+    public SDFPropertyScanner(Path anSDFile) throws IOException {
+        this.channel = FileChannel.open(anSDFile, StandardOpenOption.READ);
+    }
+
+    /**
+     * Scans the whole file and reports every record to the visitor.
+     *
+     * @param aPropertyNames names of the properties to decode, all properties if null
+     * @param aVisitor called for every record, in file order
+     * @return number of records
+     * @throws IOException if reading fails or the visitor throws one
+     * @throws CDKException if the visitor throws one
+     */
+    public long scan(Collection<String> aPropertyNames, RecordVisitor aVisitor) throws IOException, CDKException {
+        byte[][] tmpNames = null;
+        if (aPropertyNames != null) {
+            tmpNames = new byte[aPropertyNames.size()][];
+            int i = 0;
+            for (String tmpName : aPropertyNames) {
+                tmpNames[i++] = tmpName.getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        byte[] tmpBuffer = new byte[SDFPropertyScanner.CHUNK_SIZE];
+        //file position of tmpBuffer[0]
+        long tmpBufferOffset = 0;
+        int tmpLimit = 0;
+        int tmpLineStart = 0;
+        boolean tmpEndOfFile = false;
+        //*record state*
+        long tmpRecordIndex = 0;
+        long tmpRecordOffset = 0;
+        int tmpLineNumber = 0;
+        int tmpAtomCount = -1;
+        boolean tmpHasContent = false;
+        boolean tmpInDataBlock = false;
+        String tmpCurrentName = null;
+        StringBuilder tmpCurrentValue = new StringBuilder();
+        Map<String, String> tmpProperties = new LinkedHashMap<>();
+        this.channel.position(0);
+        while (true) {
+            int tmpLineEnd = SDFPropertyScanner.indexOf(tmpBuffer, (byte) '\n', tmpLineStart, tmpLimit);
+            if (tmpLineEnd < 0) {
+                if (tmpEndOfFile) {
+                    if (tmpLineStart == tmpLimit) {
+                        break;
+                    }
+                    //last line without line break
+                    tmpLineEnd = tmpLimit;
+                } else {
+                    //move the partial line to the front, grow the buffer if it is full
+                    int tmpRemaining = tmpLimit - tmpLineStart;
+                    if (tmpRemaining == tmpBuffer.length) {
+                        tmpBuffer = Arrays.copyOf(tmpBuffer, 2 * tmpBuffer.length);
+                    } else {
+                        System.arraycopy(tmpBuffer, tmpLineStart, tmpBuffer, 0, tmpRemaining);
+                    }
+                    tmpBufferOffset += tmpLineStart;
+                    tmpLimit = tmpRemaining;
+                    tmpLineStart = 0;
+                    int tmpRead = this.channel.read(ByteBuffer.wrap(tmpBuffer, tmpLimit, tmpBuffer.length - tmpLimit));
+                    if (tmpRead < 0) {
+                        tmpEndOfFile = true;
+                    } else {
+                        tmpLimit += tmpRead;
+                    }
+                    continue;
+                }
+            }
+            //line content without line break and carriage return
+            int tmpContentEnd = tmpLineEnd;
+            if (tmpContentEnd > tmpLineStart && tmpBuffer[tmpContentEnd - 1] == '\r') {
+                tmpContentEnd--;
+            }
+            int tmpNextLineStart = Math.min(tmpLineEnd + 1, tmpLimit);
+            if (SDFPropertyScanner.startsWith(tmpBuffer, tmpLineStart, tmpContentEnd, SDFRecordPipeline.RECORD_DELIMITER)) {
+                //*end of record*
+                if (tmpCurrentName != null) {
+                    tmpProperties.put(tmpCurrentName, tmpCurrentValue.toString());
+                }
+                long tmpRecordEnd = tmpBufferOffset + tmpNextLineStart;
+                aVisitor.visit(new ScannedRecord(tmpRecordIndex++, tmpRecordOffset, (int) (tmpRecordEnd - tmpRecordOffset),
+                        tmpAtomCount, tmpProperties));
+                tmpRecordOffset = tmpRecordEnd;
+                tmpLineNumber = 0;
+                tmpAtomCount = -1;
+                tmpHasContent = false;
+                tmpInDataBlock = false;
+                tmpCurrentName = null;
+                tmpProperties = new LinkedHashMap<>();
+            } else {
+                if (!tmpHasContent) {
+                    tmpHasContent = !SDFPropertyScanner.isBlank(tmpBuffer, tmpLineStart, tmpContentEnd);
+                }
+                if (tmpLineNumber == 3) {
+                    //counts line, the first three columns hold the atom count
+                    tmpAtomCount = SDFPropertyScanner.parseCount(tmpBuffer, tmpLineStart, tmpContentEnd);
+                } else if (!tmpInDataBlock) {
+                    tmpInDataBlock = SDFPropertyScanner.startsWith(tmpBuffer, tmpLineStart, tmpContentEnd, "M  END");
+                } else if (tmpContentEnd > tmpLineStart && tmpBuffer[tmpLineStart] == '>') {
+                    //data header, e.g. "> <COCONUT_ID>"
+                    if (tmpCurrentName != null) {
+                        tmpProperties.put(tmpCurrentName, tmpCurrentValue.toString());
+                    }
+                    tmpCurrentName = SDFPropertyScanner.getPropertyName(tmpBuffer, tmpLineStart, tmpContentEnd, tmpNames);
+                    tmpCurrentValue.setLength(0);
+                } else if (tmpCurrentName != null) {
+                    if (tmpContentEnd == tmpLineStart) {
+                        //a blank line terminates the value
+                        tmpProperties.put(tmpCurrentName, tmpCurrentValue.toString());
+                        tmpCurrentName = null;
+                    } else {
+                        if (tmpCurrentValue.length() > 0) {
+                            tmpCurrentValue.append('\n');
+                        }
+                        tmpCurrentValue.append(new String(tmpBuffer, tmpLineStart, tmpContentEnd - tmpLineStart, StandardCharsets.UTF_8));
+                    }
+                }
+                tmpLineNumber++;
+            }
+            tmpLineStart = tmpNextLineStart;
+        }
+        //last record without trailing delimiter
+        if (tmpHasContent) {
+            if (tmpCurrentName != null) {
+                tmpProperties.put(tmpCurrentName, tmpCurrentValue.toString());
+            }
+            aVisitor.visit(new ScannedRecord(tmpRecordIndex++, tmpRecordOffset,
+                    (int) (this.channel.size() - tmpRecordOffset), tmpAtomCount, tmpProperties));
+        }
+        return tmpRecordIndex;
+    }
+
+    /**
+     * Builds the atom container of a scanned record.
+     *
+     * @param aRecord a record of this file
+     * @param aBuilder chem object builder used for parsing
+     * @return the molecule with all its properties, or null if the record is erroneous
+     * @throws IOException if reading fails
+     */
+    public IAtomContainer readMolecule(ScannedRecord aRecord, IChemObjectBuilder aBuilder) throws IOException {
+        return this.readMolecule(aRecord.getOffset(), aRecord.getLength(), aBuilder);
+    }
+
+    /**
+     * Builds the atom container of the record at the given byte range.
+     *
+     * @param anOffset position of the first byte of the record in the file
+     * @param aLength number of bytes of the record
+     * @param aBuilder chem object builder used for parsing
+     * @return the molecule with all its properties, or null if the record is erroneous
+     * @throws IOException if reading fails
+     */
+    public IAtomContainer readMolecule(long anOffset, int aLength, IChemObjectBuilder aBuilder) throws IOException {
+        ByteBuffer tmpRecord = ByteBuffer.allocate(aLength);
+        while (tmpRecord.hasRemaining()) {
+            if (this.channel.read(tmpRecord, anOffset + tmpRecord.position()) < 0) {
+                throw new EOFException("SD file ends within the record at offset " + anOffset + ".");
+            }
+        }
+        String tmpText = new String(tmpRecord.array(), StandardCharsets.UTF_8);
+        //skip: true -> erroneous entries will be skipped
+        try (IteratingSDFReader tmpReader = new IteratingSDFReader(new StringReader(tmpText), aBuilder, true)) {
+            return tmpReader.hasNext() ? tmpReader.next() : null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private static int indexOf(byte[] aBuffer, byte aValue, int aFrom, int aTo) {
+        for (int i = aFrom; i < aTo; i++) {
+            if (aBuffer[i] == aValue) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(byte[] aBuffer, int aFrom, int aTo) {
+        for (int i = aFrom; i < aTo; i++) {
+            if ((aBuffer[i] & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the line starts with the given ASCII prefix.
+     */
+    private static boolean startsWith(byte[] aBuffer, int aFrom, int aTo, String aPrefix) {
+        if (aTo - aFrom < aPrefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < aPrefix.length(); i++) {
+            if (aBuffer[aFrom + i] != aPrefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the right-aligned three-digit count at the start of a V2000 counts line, -1 if there is none.
+     */
+    private static int parseCount(byte[] aBuffer, int aFrom, int aTo) {
+        int tmpCount = 0;
+        boolean tmpDigits = false;
+        for (int i = aFrom; i < Math.min(aFrom + 3, aTo); i++) {
+            byte tmpByte = aBuffer[i];
+            if (tmpByte >= '0' && tmpByte <= '9') {
+                tmpCount = 10 * tmpCount + (tmpByte - '0');
+                tmpDigits = true;
+            } else if (tmpByte != ' ' || tmpDigits) {
+                return -1;
+            }
+        }
+        return tmpDigits ? tmpCount : -1;
+    }
+
+    /**
+     * Extracts the name between the first pair of angle brackets of a data header, returns null if there is none
+     * or it is not one of the requested names.
+     */
+    private static String getPropertyName(byte[] aBuffer, int aFrom, int aTo, byte[][] aNames) {
+        int tmpOpen = SDFPropertyScanner.indexOf(aBuffer, (byte) '<', aFrom, aTo);
+        if (tmpOpen < 0) {
+            return null;
+        }
+        int tmpClose = SDFPropertyScanner.indexOf(aBuffer, (byte) '>', tmpOpen + 1, aTo);
+        if (tmpClose < 0) {
+            return null;
+        }
+        int tmpLength = tmpClose - tmpOpen - 1;
+        if (aNames != null) {
+            boolean tmpRequested = false;
+            for (byte[] tmpName : aNames) {
+                if (Arrays.equals(aBuffer, tmpOpen + 1, tmpClose, tmpName, 0, tmpName.length)) {
+                    tmpRequested = true;
+                    break;
+                }
+            }
+            if (!tmpRequested) {
+                return null;
+            }
+        }
+        return new String(aBuffer, tmpOpen + 1, tmpLength, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maps a key property of the records of an SD file, e.g. the COCONUT_ID, to their byte ranges, so single molecules
+ * can be fetched without scanning the file again.
+ * <p>
+ * The index is built with one {@link SDFPropertyScanner} pass and kept as sorted key, offset and length arrays that
+ * are looked up by binary search. It can be saved next to the SD file and reopened; the size and modification time
+ * of the SD file are stored with it, and a stale index is rebuilt by {@link #forFile(Path, String)}. Records without
+ * the key property are not indexed; of duplicate keys, the first record wins.
+ */
+public final class SDFRecordIndex implements Closeable {
+    /**
+     * File extension appended to the SD file name for the saved index.
+     */
+    public static final String FILE_EXTENSION = ".idx";
+
+    /**
+     * Marks an SDF record index file, "CNPI" in ASCII.
+     */
+    private static final int MAGIC = 0x434e5049;
+
+    /**
+     * Version of the index file layout, to be increased on incompatible changes.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private final SDFPropertyScanner scanner;
+
+    private final String keyProperty;
+
+    private final long fileSize;
+
+    private final long lastModified;
+
+    /**
+     * Keys in ascending order.
+     */
+    private final String[] keys;
+
+    private final long[] offsets;
+
+    private final int[] lengths;
+
+    private SDFRecordIndex(SDFPropertyScanner aScanner, String aKeyProperty, long aFileSize, long aLastModified,
+            String[] aKeys, long[] anOffsets, int[] aLengths) {
+        this.scanner = aScanner;
+        this.keyProperty = aKeyProperty;
+        this.fileSize = aFileSize;
+        this.lastModified = aLastModified;
+        this.keys = aKeys;
+        this.offsets = anOffsets;
+        this.lengths = aLengths;
+    }
+
+    /**
+     * Scans the SD file and indexes its records by the given property.
+     *
+     * @param anSDFile the SD file
+     * @param aKeyProperty name of the key property, e.g. COCONUT_ID
+     * @return the index, to be closed after use
+     * @throws IOException if reading fails
+     */
+    public static SDFRecordIndex build(Path anSDFile, String aKeyProperty) throws IOException {
+        long tmpFileSize = Files.size(anSDFile);
+        long tmpLastModified = Files.getLastModifiedTime(anSDFile).toMillis();
+        SDFPropertyScanner tmpScanner = new SDFPropertyScanner(anSDFile);
+        //the scanner is kept open by the returned index and must be closed if building fails
+        try {
+            List<SDFPropertyScanner.ScannedRecord> tmpRecords = new ArrayList<>();
+            tmpScanner.scan(Collections.singleton(aKeyProperty), aRecord -> {
+                if (aRecord.getProperty(aKeyProperty) != null) {
+                    tmpRecords.add(aRecord);
+                }
+            });
+            //stable, so the first of duplicate keys comes first
+            tmpRecords.sort((aFirst, aSecond) -> aFirst.getProperty(aKeyProperty).compareTo(aSecond.getProperty(aKeyProperty)));
+            String[] tmpKeys = new String[tmpRecords.size()];
+            long[] tmpOffsets = new long[tmpRecords.size()];
+            int[] tmpLengths = new int[tmpRecords.size()];
+            int tmpCount = 0;
+            for (SDFPropertyScanner.ScannedRecord tmpRecord : tmpRecords) {
+                String tmpKey = tmpRecord.getProperty(aKeyProperty);
+                if (tmpCount > 0 && tmpKey.equals(tmpKeys[tmpCount - 1])) {
+                    continue;
+                }
+                tmpKeys[tmpCount] = tmpKey;
+                tmpOffsets[tmpCount] = tmpRecord.getOffset();
+                tmpLengths[tmpCount] = tmpRecord.getLength();
+                tmpCount++;
+            }
+            return new SDFRecordIndex(tmpScanner, aKeyProperty, tmpFileSize, tmpLastModified,
+                    Arrays.copyOf(tmpKeys, tmpCount), Arrays.copyOf(tmpOffsets, tmpCount), Arrays.copyOf(tmpLengths, tmpCount));
+        } catch (CDKException anException) {
+            //not thrown by the visitor above
+            tmpScanner.close();
+            throw new IOException(anException);
+        } catch (IOException | RuntimeException | Error anException) {
+            tmpScanner.close();
+            throw anException;
+        }
+    }
+
+    /**
+     * Opens the saved index of the SD file ('file name' + {@link #FILE_EXTENSION}) if it is up to date, otherwise
+     * builds the index and saves it. An index file that cannot be read, e.g. because it is truncated or was written
+     * in an older format, is deleted and rebuilt.
+     *
+     * @param anSDFile the SD file
+     * @param aKeyProperty name of the key property, e.g. COCONUT_ID
+     * @return the index, to be closed after use
+     * @throws IOException if reading the SD file or reading or writing the index file fails
+     */
+    public static SDFRecordIndex forFile(Path anSDFile, String aKeyProperty) throws IOException {
+        Path tmpIndexFile = anSDFile.resolveSibling(anSDFile.getFileName() + SDFRecordIndex.FILE_EXTENSION);
+        if (Files.exists(tmpIndexFile)) {
+            SDFRecordIndex tmpIndex = null;
+            try {
+                tmpIndex = SDFRecordIndex.read(tmpIndexFile, anSDFile);
+            } catch (IOException anException) {
+                System.err.println("Rebuilding unreadable SDF record index " + tmpIndexFile + ": " + anException.getMessage());
+                Files.delete(tmpIndexFile);
+            }
+            if (tmpIndex != null) {
+                if (tmpIndex.keyProperty.equals(aKeyProperty) && tmpIndex.isCurrent(anSDFile)) {
+                    return tmpIndex;
+                }
+                tmpIndex.close();
+            }
+        }
+        SDFRecordIndex tmpIndex = SDFRecordIndex.build(anSDFile, aKeyProperty);
+        try {
+            tmpIndex.write(tmpIndexFile);
+        } catch (IOException | RuntimeException anException) {
+            tmpIndex.close();
+            throw anException;
+        }
+        return tmpIndex;
+    }
+
+    /**
+     * Reads a saved index.
+     *
+     * @param anIndexFile the index file
+     * @param anSDFile the SD file it was built from
+     * @return the index, to be closed after use
+     * @throws IOException if the index file cannot be read or has another format
+     */
+    public static SDFRecordIndex read(Path anIndexFile, Path anSDFile) throws IOException {
+        try (DataInputStream tmpInput = new DataInputStream(new BufferedInputStream(Files.newInputStream(anIndexFile)))) {
+            if (tmpInput.readInt() != SDFRecordIndex.MAGIC || tmpInput.readInt() != SDFRecordIndex.FORMAT_VERSION) {
+                throw new IOException(anIndexFile + " is not an SDF record index of the current format; please delete it.");
+            }
+            String tmpKeyProperty = tmpInput.readUTF();
+            long tmpFileSize = tmpInput.readLong();
+            long tmpLastModified = tmpInput.readLong();
+            int tmpCount = tmpInput.readInt();
+            //every entry takes at least 14 bytes, so a larger count can only come from a corrupt file
+            if (tmpCount < 0 || tmpCount > Files.size(anIndexFile) / 14) {
+                throw new IOException(anIndexFile + " is corrupt.");
+            }
+            String[] tmpKeys = new String[tmpCount];
+            long[] tmpOffsets = new long[tmpCount];
+            int[] tmpLengths = new int[tmpCount];
+            for (int i = 0; i < tmpCount; i++) {
+                tmpKeys[i] = tmpInput.readUTF();
+                tmpOffsets[i] = tmpInput.readLong();
+                tmpLengths[i] = tmpInput.readInt();
+            }
+            return new SDFRecordIndex(new SDFPropertyScanner(anSDFile), tmpKeyProperty, tmpFileSize, tmpLastModified,
+                    tmpKeys, tmpOffsets, tmpLengths);
+        }
+    }
+
+    /**
+     * Writes the index. The file is written next to the target and moved into place when complete.
+     *
+     * @param anIndexFile the index file
+     * @throws IOException if writing fails
+     */
+    public void write(Path anIndexFile) throws IOException {
+        Path tmpPartFile = anIndexFile.resolveSibling(anIndexFile.getFileName() + ".part");
+        try (DataOutputStream tmpOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPartFile)))) {
+            tmpOutput.writeInt(SDFRecordIndex.MAGIC);
+            tmpOutput.writeInt(SDFRecordIndex.FORMAT_VERSION);
+            tmpOutput.writeUTF(this.keyProperty);
+            tmpOutput.writeLong(this.fileSize);
+            tmpOutput.writeLong(this.lastModified);
+            tmpOutput.writeInt(this.keys.length);
+            for (int i = 0; i < this.keys.length; i++) {
+                tmpOutput.writeUTF(this.keys[i]);
+                tmpOutput.writeLong(this.offsets[i]);
+                tmpOutput.writeInt(this.lengths[i]);
+            }
+        }
+        Files.move(tmpPartFile, anIndexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param anSDFile the SD file the index was built from
+     * @return true if the file has the size and modification time it had when the index was built
+     * @throws IOException if the file attributes cannot be read
+     */
+    public boolean isCurrent(Path anSDFile) throws IOException {
+        return Files.size(anSDFile) == this.fileSize && Files.getLastModifiedTime(anSDFile).toMillis() == this.lastModified;
+    }
+
+    /**
+     * @return number of indexed records
+     */
+    public int size() {
+        return this.keys.length;
+    }
+
+    /**
+     * @param aKey value of the key property
+     * @return true if a record with this key is indexed
+     */
+    public boolean contains(String aKey) {
+        return Arrays.binarySearch(this.keys, aKey) >= 0;
+    }
+
+    /**
+     * Reads and parses the record with the given key.
+     *
+     * @param aKey value of the key property, e.g. a COCONUT_ID
+     * @param aBuilder chem object builder used for parsing
+     * @return the molecule, or null if no record has the key or the record is erroneous
+     * @throws IOException if reading fails
+     */
+    public IAtomContainer getMolecule(String aKey, IChemObjectBuilder aBuilder) throws IOException {
+        int tmpPosition = Arrays.binarySearch(this.keys, aKey);
+        if (tmpPosition < 0) {
+            return null;
+        }
+        return this.scanner.readMolecule(this.offsets[tmpPosition], this.lengths[tmpPosition], aBuilder);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.scanner.close();
+    }
+}
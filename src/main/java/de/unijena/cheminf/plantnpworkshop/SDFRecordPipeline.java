@@ -0,0 +1,318 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.io.iterator.IteratingSDFReader;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parallel, order-preserving processing stage for SD files.
+ * <p>
+ * One reader thread splits the raw SDF text into records at the "$$$$" delimiter lines, a bounded pool of worker
+ * threads parses every record with its own {@link IteratingSDFReader} and hands the resulting atom container to a
+ * {@link RecordProcessor}, and the calling thread consumes the results strictly in input order. At most
+ * 'capacity' records are read ahead of the consumer, so a slow consumer throttles the reader (backpressure) and
+ * memory stays bounded regardless of the file size.
+ * <p>
+ * Erroneous records are skipped, like with an IteratingSDFReader constructed with skip = true, and counted.
+ *
+ * @param <T> type of the per-molecule result
+ */
+public class SDFRecordPipeline<T> {
+    /**
+     * Processes one parsed molecule on a worker thread. Implementations must be thread-safe or keep their state
+     * thread-confined.
+     *
+     * @param <T> type of the per-molecule result
+     */
+    @FunctionalInterface
+    public interface RecordProcessor<T> {
+        /**
+         * @param aMolecule parsed molecule, exclusively owned by the calling worker
+         * @param aRecordIndex zero-based position of the record in the SD file
+         * @return the result to hand to the consumer, null results are dropped
+         */
+        T process(IAtomContainer aMolecule, long aRecordIndex) throws CDKException, IOException;
+    }
+
+    /**
+     * Receives the results on the thread that called {@link #run(InputStream, RecordProcessor, ResultConsumer)},
+     * in input order.
+     *
+     * @param <T> type of the per-molecule result
+     */
+    @FunctionalInterface
+    public interface ResultConsumer<T> {
+        void accept(T aResult) throws CDKException, IOException;
+    }
+
+    /**
+     * Delimiter line that terminates every record of an SD file.
+     */
+    public static final String RECORD_DELIMITER = "$$$$";
+
+    /**
+     * Marks the end of the input in the queue of pending results.
+     */
+    private static final Future<Object> END_OF_INPUT = CompletableFuture.completedFuture(null);
+
+    private final IChemObjectBuilder builder;
+
+    private final int workerCount;
+
+    private final int capacity;
+
+    private final AtomicLong recordCount = new AtomicLong();
+
+    private final AtomicLong skippedRecordCount = new AtomicLong();
+
+    private PipelineMetrics metrics = PipelineMetrics.disabled();
+
+    /**
+     * Uses one worker per available processor and allows four pending records per worker.
+     *
+     * @param aBuilder chem object builder used for parsing the records
+     */
+    public SDFRecordPipeline(IChemObjectBuilder aBuilder) {
+        this(aBuilder, Runtime.getRuntime().availableProcessors(), 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param aBuilder chem object builder used for parsing the records
+     * @param aWorkerCount number of worker threads parsing and processing records
+     * @param aCapacity maximum number of records that are read but not yet consumed
+     * @throws IllegalArgumentException if worker count or capacity is not positive
+     */
+    public SDFRecordPipeline(IChemObjectBuilder aBuilder, int aWorkerCount, int aCapacity) {
+        if (aWorkerCount < 1 || aCapacity < 1) {
+            throw new IllegalArgumentException("Worker count and capacity must be positive.");
+        }
+        this.builder = aBuilder;
+        this.workerCount = aWorkerCount;
+        this.capacity = aCapacity;
+    }
+
+    /**
+     * Returns the number of worker threads configured for this pipeline. It is read from the system property
+     * 'plantnpworkshop.workers' by the demo classes and defaults to the number of available processors.
+     *
+     * @return worker count
+     */
+    public static int getConfiguredWorkerCount() {
+        return Integer.getInteger("plantnpworkshop.workers", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the chem object builder for parsing selected with the system property 'plantnpworkshop.builder':
+     * 'silent' selects the lighter SilentChemObjectBuilder, which does not notify listeners of changes, anything else
+     * or no value the DefaultChemObjectBuilder.
+     *
+     * @return chem object builder
+     */
+    public static IChemObjectBuilder getConfiguredBuilder() {
+        return "silent".equalsIgnoreCase(System.getProperty("plantnpworkshop.builder"))
+                ? SilentChemObjectBuilder.getInstance() : DefaultChemObjectBuilder.getInstance();
+    }
+
+    /**
+     * Sets the metrics that parsing, skipped records and the total time per record are reported to. Must be called
+     * before {@link #run(InputStream, RecordProcessor, ResultConsumer)}.
+     *
+     * @param aMetrics the metrics, disabled by default
+     */
+    public void setMetrics(PipelineMetrics aMetrics) {
+        this.metrics = aMetrics;
+    }
+
+    /**
+     * Processes all records of the given SDF input stream and passes the results to the consumer in input order.
+     * The input stream is closed afterwards.
+     *
+     * @param anSDFInputStream SDF input
+     * @param aProcessor called on the worker threads for every successfully parsed molecule
+     * @param aConsumer called on the calling thread for every non-null result, in input order
+     * @throws IOException if reading the input fails or the processor or consumer throws one
+     * @throws CDKException if the processor or consumer throws one
+     */
+    public void run(InputStream anSDFInputStream, RecordProcessor<T> aProcessor, ResultConsumer<T> aConsumer)
+            throws IOException, CDKException {
+        this.recordCount.set(0);
+        this.skippedRecordCount.set(0);
+        BlockingQueue<Future<?>> tmpPending = new ArrayBlockingQueue<>(this.capacity);
+        AtomicInteger tmpThreadNumber = new AtomicInteger();
+        ExecutorService tmpWorkers = Executors.newFixedThreadPool(this.workerCount, aRunnable -> {
+            Thread tmpThread = new Thread(aRunnable, "sdf-worker-" + tmpThreadNumber.incrementAndGet());
+            tmpThread.setDaemon(true);
+            return tmpThread;
+        });
+        //any failure of the reader, e.g. an OutOfMemoryError on a huge record without delimiter
+        Throwable[] tmpReaderFailure = new Throwable[1];
+        Thread tmpReaderThread = new Thread(() -> {
+            boolean tmpIsAbandoned = false;
+            try (BufferedReader tmpLineReader = new BufferedReader(
+                    new InputStreamReader(anSDFInputStream, StandardCharsets.UTF_8))) {
+                StringBuilder tmpRecord = new StringBuilder(4096);
+                long tmpIndex = 0;
+                String tmpLine;
+                while ((tmpLine = tmpLineReader.readLine()) != null) {
+                    tmpRecord.append(tmpLine).append('\n');
+                    if (tmpLine.startsWith(SDFRecordPipeline.RECORD_DELIMITER)) {
+                        tmpPending.put(this.submit(tmpWorkers, tmpRecord.toString(), tmpIndex++, aProcessor));
+                        tmpRecord.setLength(0);
+                    }
+                }
+                //last record without trailing delimiter
+                if (!tmpRecord.toString().isBlank()) {
+                    tmpPending.put(this.submit(tmpWorkers, tmpRecord.toString(), tmpIndex, aProcessor));
+                }
+            } catch (InterruptedException anException) {
+                //consumer gave up, no end marker required
+                tmpIsAbandoned = true;
+            } catch (Throwable aThrowable) {
+                tmpReaderFailure[0] = aThrowable;
+            } finally {
+                //the consumer waits for the end marker, also if reading failed
+                if (!tmpIsAbandoned) {
+                    try {
+                        tmpPending.put(SDFRecordPipeline.END_OF_INPUT);
+                    } catch (InterruptedException anException) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, "sdf-reader");
+        tmpReaderThread.setDaemon(true);
+        tmpReaderThread.start();
+        try {
+            while (true) {
+                Future<?> tmpFuture = tmpPending.take();
+                if (tmpFuture == SDFRecordPipeline.END_OF_INPUT) {
+                    break;
+                }
+                @SuppressWarnings("unchecked")
+                T tmpResult = (T) tmpFuture.get();
+                if (tmpResult != null) {
+                    aConsumer.accept(tmpResult);
+                }
+            }
+            tmpReaderThread.join();
+            Throwable tmpFailure = tmpReaderFailure[0];
+            if (tmpFailure instanceof IOException) {
+                throw (IOException) tmpFailure;
+            } else if (tmpFailure instanceof RuntimeException) {
+                throw (RuntimeException) tmpFailure;
+            } else if (tmpFailure instanceof Error) {
+                throw (Error) tmpFailure;
+            } else if (tmpFailure != null) {
+                throw new IOException("Reading SDF records failed.", tmpFailure);
+            }
+        } catch (InterruptedException anException) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for SDF records.", anException);
+        } catch (ExecutionException anException) {
+            Throwable tmpCause = anException.getCause();
+            if (tmpCause instanceof CDKException) {
+                throw (CDKException) tmpCause;
+            } else if (tmpCause instanceof IOException) {
+                throw (IOException) tmpCause;
+            } else if (tmpCause instanceof RuntimeException) {
+                throw (RuntimeException) tmpCause;
+            } else if (tmpCause instanceof Error) {
+                throw (Error) tmpCause;
+            }
+            throw new CDKException("Processing of an SDF record failed.", tmpCause);
+        } finally {
+            tmpReaderThread.interrupt();
+            tmpWorkers.shutdownNow();
+        }
+    }
+
+    /**
+     * @return number of records read in the last run, including skipped ones
+     */
+    public long getRecordCount() {
+        return this.recordCount.get();
+    }
+
+    /**
+     * @return number of records of the last run that could not be parsed and were skipped
+     */
+    public long getSkippedRecordCount() {
+        return this.skippedRecordCount.get();
+    }
+
+    /**
+     * Submits parsing and processing of one raw record to the worker pool.
+     */
+    private Future<T> submit(ExecutorService aWorkers, String aRecord, long anIndex, RecordProcessor<T> aProcessor) {
+        this.recordCount.incrementAndGet();
+        PipelineMetrics tmpMetrics = this.metrics;
+        return aWorkers.submit(() -> {
+            long tmpStart = tmpMetrics.start();
+            IAtomContainer tmpMolecule = this.parse(aRecord);
+            tmpMetrics.record(ProcessingStage.PARSING, tmpStart);
+            if (tmpMolecule == null) {
+                this.skippedRecordCount.incrementAndGet();
+                tmpMetrics.recordSkipped();
+                return null;
+            }
+            T tmpResult = aProcessor.process(tmpMolecule, anIndex);
+            if (tmpMetrics.isEnabled()) {
+                tmpMetrics.recordMolecule(tmpMolecule.getProperty("COCONUT_ID"), tmpStart);
+            }
+            return tmpResult;
+        });
+    }
+
+    /**
+     * Parses a single raw SDF record, returns null if it is erroneous.
+     */
+    private IAtomContainer parse(String aRecord) throws IOException {
+        //skip: true -> erroneous entries will be skipped
+        try (IteratingSDFReader tmpReader = new IteratingSDFReader(new StringReader(aRecord), this.builder, true)) {
+            return tmpReader.hasNext() ? tmpReader.next() : null;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.fingerprint.IBitFingerprint;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Demo class for clustering a fingerprint library into families of similar compounds with {@link ButinaClustering}.
+ */
+public class SimilarityClustering {
+    /**
+     * Fingerprint of one library compound.
+     */
+    private static final class LibraryEntry {
+        private final String coconutID;
+
+        private final IBitFingerprint fingerprint;
+
+        private LibraryEntry(String aCOCONUTID, IBitFingerprint aFingerprint) {
+            this.coconutID = aCOCONUTID;
+            this.fingerprint = aFingerprint;
+        }
+    }
+
+    /**
+     * COCONUT subset molecules are loaded from SD file, their fingerprints calculated like in
+     * {@link FingerprintCalculation} (including the cache given by 'plantnpworkshop.cache') and clustered. Every
+     * cluster is printed to console with its centroid first, followed by a summary.
+     * <p>
+     * The fingerprint type is read from the system property 'plantnpworkshop.cluster.fingerprint' ('ecfp', the
+     * default, or 'pubchem'), the similarity threshold of neighbours from 'plantnpworkshop.cluster.threshold'
+     * (default 0.6) and the memory budget for the neighbour lists in megabytes from 'plantnpworkshop.cluster.memory'
+     * (default a quarter of the maximum heap size). If the system property 'plantnpworkshop.fingerprintdb' names a
+     * directory with fingerprint database files built by {@link FingerprintDatabase#main(String[])}, the
+     * fingerprints are mapped from there instead.
+     *
+     * @param args the command line arguments (none required)
+     */
+    public static void main(String[] args) throws IOException, CDKException {
+
+        //*configuration*
+        MoleculeCalculator tmpFingerprintType = "pubchem".equalsIgnoreCase(
+                System.getProperty("plantnpworkshop.cluster.fingerprint", "ecfp"))
+                ? MoleculeCalculator.PUBCHEM_FINGERPRINT : MoleculeCalculator.CIRCULAR_FINGERPRINT;
+        double tmpThreshold = Double.parseDouble(System.getProperty("plantnpworkshop.cluster.threshold", "0.6"));
+        long tmpMemoryBudget = Long.getLong("plantnpworkshop.cluster.memory", Runtime.getRuntime().maxMemory() / 4L / (1L << 20)) << 20;
+        int tmpWorkerCount = SDFRecordPipeline.getConfiguredWorkerCount();
+
+        //*fingerprint calculation and indexing*
+        FingerprintIndex tmpIndex;
+        String tmpDatabaseDirectory = System.getProperty("plantnpworkshop.fingerprintdb");
+        if (tmpDatabaseDirectory != null) {
+            //library fingerprints are mapped from disk, stale files are rejected
+            tmpIndex = FingerprintDatabase.open(Path.of(tmpDatabaseDirectory).resolve(
+                    FingerprintDatabase.getDefaultFileName(tmpFingerprintType)), tmpFingerprintType);
+        } else {
+            File tmpSDFile = new File("src/main/resources/COCONUTset-10.sdf");
+            IChemObjectBuilder tmpBuilder = DefaultChemObjectBuilder.getInstance();
+            //the fingerprint size is taken from the first added fingerprint
+            FingerprintIndex.Builder tmpIndexBuilder = new FingerprintIndex.Builder();
+            try (PipelineMetrics tmpMetrics = PipelineMetrics.fromSystemProperties();
+                    ResultCache tmpCache = ResultCache.fromSystemProperties()) {
+                SDFRecordPipeline<LibraryEntry> tmpPipeline = new SDFRecordPipeline<>(tmpBuilder, tmpWorkerCount, 4 * tmpWorkerCount);
+                tmpPipeline.setMetrics(tmpMetrics);
+                tmpPipeline.run(new FileInputStream(tmpSDFile),
+                        (aMolecule, anIndex) -> SimilarityClustering.calculateFingerprint(aMolecule, tmpBuilder,
+                                tmpFingerprintType, tmpCache, tmpMetrics),
+                        anEntry -> tmpIndexBuilder.add(anEntry.coconutID, anEntry.fingerprint));
+            }
+            tmpIndex = tmpIndexBuilder.build();
+        }
+
+        //*clustering*
+        ButinaClustering tmpClustering = new ButinaClustering(tmpThreshold, tmpMemoryBudget, tmpWorkerCount);
+        List<List<SimilarityHit>> tmpClusters = tmpClustering.cluster(tmpIndex);
+        int tmpSingletonCount = 0;
+        for (int i = 0; i < tmpClusters.size(); i++) {
+            List<SimilarityHit> tmpCluster = tmpClusters.get(i);
+            if (tmpCluster.size() == 1) {
+                tmpSingletonCount++;
+            }
+            System.out.println("Cluster " + (i + 1) + " (" + tmpCluster.size() + " compounds), centroid "
+                    + tmpCluster.get(0).getId() + ": " + tmpCluster.subList(1, tmpCluster.size()));
+        }
+        System.out.println("\n" + tmpIndex.size() + " compounds in " + tmpClusters.size() + " clusters ("
+                + tmpSingletonCount + " singletons) at Tanimoto similarity " + tmpThreshold + ", "
+                + tmpClustering.getNeighborPairCount() + " neighbour pairs, neighbour lists "
+                + (tmpClustering.isNeighborListsStored() ? "stored" : "recomputed on demand (memory budget exceeded)"));
+    }
+
+    /**
+     * Calculates the fingerprint of the given type for one molecule. Called on the pipeline workers.
+     */
+    private static LibraryEntry calculateFingerprint(IAtomContainer aMolecule, IChemObjectBuilder aBuilder,
+            MoleculeCalculator aFingerprintType, ResultCache aCache, PipelineMetrics aMetrics) throws CDKException {
+        CalculatorRegistry tmpRegistry = CalculatorRegistry.forCurrentThread(aBuilder);
+        PreparedMolecule tmpPrepared = PreparedMolecule.forCalculators(aMolecule, tmpRegistry, aFingerprintType);
+        tmpPrepared.setMetrics(aMetrics);
+        IBitFingerprint tmpFingerprint = aCache.getFingerprint(aFingerprintType, aCache.createStructureKey(aMolecule), () -> {
+            IAtomContainer tmpInput = tmpPrepared.getFor(aFingerprintType);
+            long tmpStart = aMetrics.start();
+            IBitFingerprint tmpResult;
+            if (aFingerprintType == MoleculeCalculator.PUBCHEM_FINGERPRINT) {
+                tmpResult = tmpRegistry.getPubChemFingerprinter().getBitFingerprint(tmpInput);
+                aMetrics.record(ProcessingStage.PUBCHEM_FINGERPRINT, tmpStart);
+            } else {
+                tmpResult = tmpRegistry.getCircularFingerprinter().getBitFingerprint(tmpInput);
+                aMetrics.record(ProcessingStage.CIRCULAR_FINGERPRINT, tmpStart);
+            }
+            return tmpResult;
+        });
+        return new LibraryEntry(aMolecule.getProperty("COCONUT_ID"), tmpFingerprint);
+    }
+}
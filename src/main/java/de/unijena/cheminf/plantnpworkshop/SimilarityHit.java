@@ -0,0 +1,82 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+/**
+ * One result of a similarity search, see {@link FingerprintIndex}.
+ */
+public final class SimilarityHit implements Comparable<SimilarityHit> {
+    private final int index;
+
+    private final String id;
+
+    private final double score;
+
+    /**
+     * @param anIndex position of the hit in the order the fingerprints were added to the index
+     * @param anId identifier of the hit, e.g. its COCONUT_ID
+     * @param aScore Tanimoto similarity to the query
+     */
+    public SimilarityHit(int anIndex, String anId, double aScore) {
+        this.index = anIndex;
+        this.id = anId;
+        this.score = aScore;
+    }
+
+    /**
+     * @return position of the hit in the order the fingerprints were added to the index
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * @return identifier of the hit
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * @return Tanimoto similarity to the query
+     */
+    public double getScore() {
+        return this.score;
+    }
+
+    /**
+     * Orders by descending score, ties by ascending index.
+     */
+    @Override
+    public int compareTo(SimilarityHit anOther) {
+        int tmpComparison = Double.compare(anOther.score, this.score);
+        return tmpComparison != 0 ? tmpComparison : Integer.compare(this.index, anOther.index);
+    }
+
+    @Override
+    public String toString() {
+        return this.id + " (" + this.score + ")";
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.fingerprint.IBitFingerprint;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Demo class for screening many query structures against a fingerprint library with {@link FingerprintIndex}.
+ */
+public class SimilaritySearch {
+    /**
+     * Fingerprints of one library compound.
+     */
+    private static final class LibraryEntry {
+        private final String name;
+
+        private final String coconutID;
+
+        private final IBitFingerprint pubChemFingerprint;
+
+        private final IBitFingerprint ecfp;
+
+        private LibraryEntry(String aName, String aCOCONUTID, IBitFingerprint aPubChemFingerprint, IBitFingerprint anECFP) {
+            this.name = aName;
+            this.coconutID = aCOCONUTID;
+            this.pubChemFingerprint = aPubChemFingerprint;
+            this.ecfp = anECFP;
+        }
+    }
+
+    /**
+     * Number of most similar library compounds reported per query.
+     */
+    private static final int TOP_K = 3;
+
+    /**
+     * COCONUT subset molecules are loaded from SD file, their PubChem and ECFP6 fingerprints calculated and packed
+     * into one index per fingerprint type. Then every compound is used as a query and its most similar compounds in
+     * the subset (including itself) are printed to console.
+     * <p>
+     * If the system property 'plantnpworkshop.fingerprintdb' names a directory with fingerprint database files
+     * built by {@link FingerprintDatabase#main(String[])}, the library indexes are mapped from these files instead.
+     *
+     * @param args the command line arguments (none required)
+     */
+    public static void main(String[] args) throws IOException, CDKException {
+
+        //*loading SD file from resources*
+        File tmpSDFile = new File("src/main/resources/COCONUTset-10.sdf");
+        IChemObjectBuilder tmpBuilder = DefaultChemObjectBuilder.getInstance();
+        SDFRecordPipeline<LibraryEntry> tmpPipeline = new SDFRecordPipeline<>(tmpBuilder,
+                SDFRecordPipeline.getConfiguredWorkerCount(), 4 * SDFRecordPipeline.getConfiguredWorkerCount());
+
+        //*fingerprint calculation and indexing*
+        //the library is only indexed in memory if it is not mapped from fingerprint database files
+        String tmpDatabaseDirectory = System.getProperty("plantnpworkshop.fingerprintdb");
+        //the fingerprint sizes are taken from the first added fingerprints
+        FingerprintIndex.Builder tmpPubChemIndexBuilder = tmpDatabaseDirectory == null ? new FingerprintIndex.Builder() : null;
+        FingerprintIndex.Builder tmpECFPIndexBuilder = tmpDatabaseDirectory == null ? new FingerprintIndex.Builder() : null;
+        List<LibraryEntry> tmpEntries = new ArrayList<>();
+        //the pipeline hands the entries over in input order
+        tmpPipeline.run(new FileInputStream(tmpSDFile),
+                (aMolecule, anIndex) -> SimilaritySearch.calculateFingerprints(aMolecule, tmpBuilder),
+                anEntry -> {
+                    tmpEntries.add(anEntry);
+                    if (tmpPubChemIndexBuilder != null) {
+                        tmpPubChemIndexBuilder.add(anEntry.coconutID, anEntry.pubChemFingerprint);
+                        tmpECFPIndexBuilder.add(anEntry.coconutID, anEntry.ecfp);
+                    }
+                });
+        FingerprintIndex tmpPubChemIndex;
+        FingerprintIndex tmpECFPIndex;
+        if (tmpDatabaseDirectory == null) {
+            tmpPubChemIndex = tmpPubChemIndexBuilder.build();
+            tmpECFPIndex = tmpECFPIndexBuilder.build();
+        } else {
+            //library fingerprints are mapped from disk, stale files are rejected
+            Path tmpDirectory = Path.of(tmpDatabaseDirectory);
+            tmpPubChemIndex = FingerprintDatabase.open(tmpDirectory.resolve(
+                    FingerprintDatabase.getDefaultFileName(MoleculeCalculator.PUBCHEM_FINGERPRINT)),
+                    MoleculeCalculator.PUBCHEM_FINGERPRINT);
+            tmpECFPIndex = FingerprintDatabase.open(tmpDirectory.resolve(
+                    FingerprintDatabase.getDefaultFileName(MoleculeCalculator.CIRCULAR_FINGERPRINT)),
+                    MoleculeCalculator.CIRCULAR_FINGERPRINT);
+        }
+
+        //*screening*
+        //all queries are searched in parallel, the results come back in query order
+        List<IBitFingerprint> tmpPubChemQueries = new ArrayList<>(tmpEntries.size());
+        List<IBitFingerprint> tmpECFPQueries = new ArrayList<>(tmpEntries.size());
+        for (LibraryEntry tmpEntry : tmpEntries) {
+            tmpPubChemQueries.add(tmpEntry.pubChemFingerprint);
+            tmpECFPQueries.add(tmpEntry.ecfp);
+        }
+        List<List<SimilarityHit>> tmpPubChemHits = tmpPubChemIndex.searchTopK(tmpPubChemQueries, SimilaritySearch.TOP_K, 0.0);
+        List<List<SimilarityHit>> tmpECFPHits = tmpECFPIndex.searchTopK(tmpECFPQueries, SimilaritySearch.TOP_K, 0.0);
+        for (int i = 0; i < tmpEntries.size(); i++) {
+            LibraryEntry tmpEntry = tmpEntries.get(i);
+            System.out.println("\n" + tmpEntry.name + " (" + tmpEntry.coconutID + ")");
+            System.out.println("\tMost similar compounds (using PubChem FP): " + tmpPubChemHits.get(i));
+            System.out.println("\tMost similar compounds (using ECFP): " + tmpECFPHits.get(i));
+        }
+    }
+
+    /**
+     * Calculates the PubChem and ECFP6 fingerprints of one molecule. Called on the pipeline workers.
+     */
+    private static LibraryEntry calculateFingerprints(IAtomContainer aMolecule, IChemObjectBuilder aBuilder) throws CDKException {
+        CalculatorRegistry tmpRegistry = CalculatorRegistry.forCurrentThread(aBuilder);
+        PreparedMolecule tmpPrepared = PreparedMolecule.forCalculators(aMolecule, tmpRegistry,
+                MoleculeCalculator.PUBCHEM_FINGERPRINT, MoleculeCalculator.CIRCULAR_FINGERPRINT);
+        IBitFingerprint tmpPubChemFingerprint = tmpRegistry.getPubChemFingerprinter()
+                .getBitFingerprint(tmpPrepared.getFor(MoleculeCalculator.PUBCHEM_FINGERPRINT));
+        IBitFingerprint tmpECFPrint = tmpRegistry.getCircularFingerprinter()
+                .getBitFingerprint(tmpPrepared.getFor(MoleculeCalculator.CIRCULAR_FINGERPRINT));
+        return new LibraryEntry(aMolecule.getProperty("Name"), aMolecule.getProperty("COCONUT_ID"),
+                tmpPubChemFingerprint, tmpECFPrint);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Demo class for approximate near-duplicate search on unfolded ECFP6 features with {@link MinHashIndex}.
+ */
+public class SparseSimilaritySearch {
+    /**
+     * Unfolded ECFP6 features of one library compound.
+     */
+    private static final class LibraryEntry {
+        private final String name;
+
+        private final String coconutID;
+
+        private final int[] features;
+
+        private LibraryEntry(String aName, String aCOCONUTID, int[] aFeatures) {
+            this.name = aName;
+            this.coconutID = aCOCONUTID;
+            this.features = aFeatures;
+        }
+    }
+
+    /**
+     * Number of most similar library compounds reported per query.
+     */
+    private static final int TOP_K = 3;
+
+    /**
+     * COCONUT subset molecules are loaded from SD file and their ECFP6 features are calculated without folding
+     * them into a bit fingerprint. The features are hashed into a MinHash index, every compound is used as a query
+     * and its most similar compounds above the similarity threshold (including itself) are printed to console.
+     * Finally, the approximate threshold search is compared with a brute force search over all compounds and the
+     * measured recall is printed.
+     * <p>
+     * The similarity threshold is read from the system property 'plantnpworkshop.lsh.threshold' (default 0.7),
+     * the targeted recall at this threshold from 'plantnpworkshop.lsh.recall' (default 0.95) and the maximum number
+     * of MinHash values per molecule from 'plantnpworkshop.lsh.hashes' (default 128).
+     *
+     * @param args the command line arguments (none required)
+     */
+    public static void main(String[] args) throws IOException, CDKException {
+
+        //*loading SD file from resources*
+        File tmpSDFile = new File("src/main/resources/COCONUTset-10.sdf");
+        IChemObjectBuilder tmpBuilder = DefaultChemObjectBuilder.getInstance();
+        SDFRecordPipeline<LibraryEntry> tmpPipeline = new SDFRecordPipeline<>(tmpBuilder,
+                SDFRecordPipeline.getConfiguredWorkerCount(), 4 * SDFRecordPipeline.getConfiguredWorkerCount());
+
+        //*index configuration*
+        double tmpThreshold = Double.parseDouble(System.getProperty("plantnpworkshop.lsh.threshold", "0.7"));
+        double tmpRecall = Double.parseDouble(System.getProperty("plantnpworkshop.lsh.recall", "0.95"));
+        int tmpMaxHashCount = Integer.getInteger("plantnpworkshop.lsh.hashes", 128);
+        MinHashIndex.Builder tmpIndexBuilder = MinHashIndex.Builder.forRecall(tmpThreshold, tmpRecall, tmpMaxHashCount);
+
+        //*feature calculation and indexing*
+        List<LibraryEntry> tmpEntries = new ArrayList<>();
+        List<int[]> tmpQueries = new ArrayList<>();
+        //the pipeline hands the entries over in input order
+        tmpPipeline.run(new FileInputStream(tmpSDFile),
+                (aMolecule, anIndex) -> SparseSimilaritySearch.calculateFeatures(aMolecule, tmpBuilder),
+                anEntry -> {
+                    tmpEntries.add(anEntry);
+                    tmpQueries.add(anEntry.features);
+                    tmpIndexBuilder.add(anEntry.coconutID, anEntry.features);
+                });
+        MinHashIndex tmpIndex = tmpIndexBuilder.build();
+
+        //*screening*
+        List<List<SimilarityHit>> tmpTopHits = tmpIndex.searchTopK(tmpQueries, SparseSimilaritySearch.TOP_K, tmpThreshold);
+        for (int i = 0; i < tmpEntries.size(); i++) {
+            LibraryEntry tmpEntry = tmpEntries.get(i);
+            System.out.println("\n" + tmpEntry.name + " (" + tmpEntry.coconutID + ")");
+            System.out.println("\tUnfolded ECFP features: " + tmpEntry.features.length);
+            System.out.println("\tMost similar compounds (using MinHash on unfolded ECFP): " + tmpTopHits.get(i));
+        }
+
+        //*recall against brute force*
+        List<List<SimilarityHit>> tmpApproximateHits = tmpIndex.searchThreshold(tmpQueries, tmpThreshold);
+        List<List<SimilarityHit>> tmpExactHits = tmpIndex.searchThresholdExhaustive(tmpQueries, tmpThreshold);
+        System.out.println("\nMinHash index: " + tmpIndex.getBandCount() + " bands of " + tmpIndex.getRowCount()
+                + " rows, expected recall at similarity " + tmpThreshold + ": "
+                + String.format("%.3f", tmpIndex.getCandidateProbability(tmpThreshold)));
+        System.out.println("Measured recall against brute force: "
+                + String.format("%.3f", MinHashIndex.getRecall(tmpApproximateHits, tmpExactHits))
+                + ", mean candidates per query: " + String.format("%.1f", tmpIndex.getMeanCandidateCount())
+                + " of " + tmpIndex.size());
+    }
+
+    /**
+     * Calculates the unfolded ECFP6 features of one molecule. Called on the pipeline workers.
+     */
+    private static LibraryEntry calculateFeatures(IAtomContainer aMolecule, IChemObjectBuilder aBuilder) throws CDKException {
+        CalculatorRegistry tmpRegistry = CalculatorRegistry.forCurrentThread(aBuilder);
+        PreparedMolecule tmpPrepared = PreparedMolecule.forCalculators(aMolecule, tmpRegistry,
+                MoleculeCalculator.CIRCULAR_FINGERPRINT);
+        int[] tmpFeatures = MinHashIndex.getFeatures(tmpRegistry.getCircularFingerprinter()
+                .getCountFingerprint(tmpPrepared.getFor(MoleculeCalculator.CIRCULAR_FINGERPRINT)));
+        return new LibraryEntry(aMolecule.getProperty("Name"), aMolecule.getProperty("COCONUT_ID"), tmpFeatures);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openscience.cdk.fingerprint.IBitFingerprint;
+import org.openscience.cdk.similarity.Tanimoto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares {@link ButinaClustering} with a naive Butina clustering on the full similarity matrix of a corpus whose
+ * fingerprints have many neighbours at the threshold.
+ */
+class ButinaClusteringTest {
+    private static final double THRESHOLD = 0.6;
+
+    private static List<IBitFingerprint> fingerprints;
+
+    private static FingerprintIndex index;
+
+    @BeforeAll
+    static void setUp() {
+        ButinaClusteringTest.fingerprints = SyntheticFingerprints.toFingerprints(
+                SyntheticFingerprints.createFamilies(120, 10, 1024, 60, 10, 11L), 1024);
+        FingerprintIndex.Builder tmpBuilder = new FingerprintIndex.Builder();
+        for (int i = 0; i < ButinaClusteringTest.fingerprints.size(); i++) {
+            tmpBuilder.add("id-" + i, ButinaClusteringTest.fingerprints.get(i));
+        }
+        ButinaClusteringTest.index = tmpBuilder.build();
+    }
+
+    @Test
+    void clusteringEqualsNaiveReference() {
+        List<IBitFingerprint> tmpFingerprints = ButinaClusteringTest.fingerprints;
+        int tmpCount = tmpFingerprints.size();
+        double[][] tmpSimilarities = new double[tmpCount][tmpCount];
+        long tmpPairCount = 0;
+        for (int i = 0; i < tmpCount; i++) {
+            for (int j = i + 1; j < tmpCount; j++) {
+                tmpSimilarities[i][j] = Tanimoto.calculate(tmpFingerprints.get(i), tmpFingerprints.get(j));
+                tmpSimilarities[j][i] = tmpSimilarities[i][j];
+                if (tmpSimilarities[i][j] >= ButinaClusteringTest.THRESHOLD) {
+                    tmpPairCount++;
+                }
+            }
+        }
+        List<List<SimilarityHit>> tmpExpected = ButinaClusteringTest.clusterNaively(tmpSimilarities);
+        ButinaClustering tmpClustering = new ButinaClustering(ButinaClusteringTest.THRESHOLD, Long.MAX_VALUE, 1);
+        List<List<SimilarityHit>> tmpActual = tmpClustering.cluster(ButinaClusteringTest.index);
+        assertTrue(tmpClustering.isNeighborListsStored());
+        assertEquals(tmpPairCount, tmpClustering.getNeighborPairCount());
+        ButinaClusteringTest.assertClustersEqual(tmpExpected, tmpActual);
+        //the corpus must produce real clusters, not only singletons
+        long tmpLargeClusterCount = tmpActual.stream().filter(aCluster -> aCluster.size() >= 5).count();
+        assertTrue(tmpLargeClusterCount >= 50, "clusters with at least 5 members: " + tmpLargeClusterCount);
+        assertTrue(tmpActual.size() < tmpCount / 2, "clusters: " + tmpActual.size());
+    }
+
+    @Test
+    void storedAndRecomputedNeighborsGiveSameClusters() {
+        ButinaClustering tmpStored = new ButinaClustering(ButinaClusteringTest.THRESHOLD, Long.MAX_VALUE, 1);
+        List<List<SimilarityHit>> tmpExpected = tmpStored.cluster(ButinaClusteringTest.index);
+        assertTrue(tmpStored.isNeighborListsStored());
+        for (int tmpParallelism : new int[] {1, 4}) {
+            ButinaClustering tmpRecomputed = new ButinaClustering(ButinaClusteringTest.THRESHOLD, 0L, tmpParallelism);
+            ButinaClusteringTest.assertClustersEqual(tmpExpected, tmpRecomputed.cluster(ButinaClusteringTest.index));
+            assertFalse(tmpRecomputed.isNeighborListsStored());
+            assertEquals(tmpStored.getNeighborPairCount(), tmpRecomputed.getNeighborPairCount());
+            ButinaClustering tmpParallelStored = new ButinaClustering(ButinaClusteringTest.THRESHOLD, Long.MAX_VALUE,
+                    tmpParallelism);
+            ButinaClusteringTest.assertClustersEqual(tmpExpected, tmpParallelStored.cluster(ButinaClusteringTest.index));
+        }
+    }
+
+    /**
+     * Butina clustering on a full similarity matrix: centroids by descending neighbour count, ties by insertion
+     * order, members by descending similarity to the centroid, ties by insertion order.
+     */
+    private static List<List<SimilarityHit>> clusterNaively(double[][] aSimilarities) {
+        int tmpCount = aSimilarities.length;
+        List<Integer> tmpOrder = new ArrayList<>(tmpCount);
+        int[] tmpDegrees = new int[tmpCount];
+        for (int i = 0; i < tmpCount; i++) {
+            tmpOrder.add(i);
+            for (int j = 0; j < tmpCount; j++) {
+                if (i != j && aSimilarities[i][j] >= ButinaClusteringTest.THRESHOLD) {
+                    tmpDegrees[i]++;
+                }
+            }
+        }
+        tmpOrder.sort((aFirst, aSecond) -> tmpDegrees[aFirst] != tmpDegrees[aSecond]
+                ? Integer.compare(tmpDegrees[aSecond], tmpDegrees[aFirst]) : Integer.compare(aFirst, aSecond));
+        boolean[] tmpAssigned = new boolean[tmpCount];
+        List<List<SimilarityHit>> tmpClusters = new ArrayList<>();
+        for (int tmpCentroid : tmpOrder) {
+            if (tmpAssigned[tmpCentroid]) {
+                continue;
+            }
+            tmpAssigned[tmpCentroid] = true;
+            List<SimilarityHit> tmpMembers = new ArrayList<>();
+            for (int j = 0; j < tmpCount; j++) {
+                if (!tmpAssigned[j] && j != tmpCentroid && aSimilarities[tmpCentroid][j] >= ButinaClusteringTest.THRESHOLD) {
+                    tmpAssigned[j] = true;
+                    tmpMembers.add(new SimilarityHit(j, "id-" + j, aSimilarities[tmpCentroid][j]));
+                }
+            }
+            Collections.sort(tmpMembers);
+            tmpMembers.add(0, new SimilarityHit(tmpCentroid, "id-" + tmpCentroid, 1.0));
+            tmpClusters.add(tmpMembers);
+        }
+        return tmpClusters;
+    }
+
+    private static void assertClustersEqual(List<List<SimilarityHit>> anExpected, List<List<SimilarityHit>> anActual) {
+        assertEquals(anExpected.size(), anActual.size());
+        for (int i = 0; i < anExpected.size(); i++) {
+            List<SimilarityHit> tmpExpectedCluster = anExpected.get(i);
+            List<SimilarityHit> tmpActualCluster = anActual.get(i);
+            assertEquals(tmpExpectedCluster.size(), tmpActualCluster.size());
+            for (int j = 0; j < tmpExpectedCluster.size(); j++) {
+                assertEquals(tmpExpectedCluster.get(j).getIndex(), tmpActualCluster.get(j).getIndex());
+                assertEquals(tmpExpectedCluster.get(j).getId(), tmpActualCluster.get(j).getId());
+                assertEquals(tmpExpectedCluster.get(j).getScore(), tmpActualCluster.get(j).getScore(), 0.0);
+            }
+        }
+    }
+}
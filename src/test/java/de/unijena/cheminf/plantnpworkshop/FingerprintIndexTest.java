@@ -0,0 +1,166 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.fingerprint.IBitFingerprint;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.io.iterator.IteratingSDFReader;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import org.openscience.cdk.similarity.Tanimoto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the searches of {@link FingerprintIndex} with brute force scans of the same fingerprints using
+ * Tanimoto.calculate().
+ */
+class FingerprintIndexTest {
+    private static List<IBitFingerprint> pubChemFingerprints;
+
+    private static List<IBitFingerprint> ecfps;
+
+    private static List<IBitFingerprint> syntheticFingerprints;
+
+    @BeforeAll
+    static void setUp() throws IOException, CDKException {
+        FingerprintIndexTest.pubChemFingerprints = new ArrayList<>();
+        FingerprintIndexTest.ecfps = new ArrayList<>();
+        CalculatorRegistry tmpRegistry = CalculatorRegistry.forCurrentThread(SilentChemObjectBuilder.getInstance());
+        try (InputStream tmpInput = FingerprintIndexTest.class.getResourceAsStream("/COCONUTset-10.sdf");
+                IteratingSDFReader tmpReader = new IteratingSDFReader(tmpInput, SilentChemObjectBuilder.getInstance())) {
+            while (tmpReader.hasNext()) {
+                IAtomContainer tmpMolecule = tmpReader.next();
+                PreparedMolecule tmpPrepared = PreparedMolecule.forCalculators(tmpMolecule, tmpRegistry,
+                        MoleculeCalculator.PUBCHEM_FINGERPRINT, MoleculeCalculator.CIRCULAR_FINGERPRINT);
+                FingerprintIndexTest.pubChemFingerprints.add(tmpRegistry.getPubChemFingerprinter()
+                        .getBitFingerprint(tmpPrepared.getFor(MoleculeCalculator.PUBCHEM_FINGERPRINT)));
+                FingerprintIndexTest.ecfps.add(tmpRegistry.getCircularFingerprinter()
+                        .getBitFingerprint(tmpPrepared.getFor(MoleculeCalculator.CIRCULAR_FINGERPRINT)));
+            }
+        }
+        FingerprintIndexTest.syntheticFingerprints = SyntheticFingerprints.toFingerprints(
+                SyntheticFingerprints.createFamilies(150, 8, 1024, 60, 25, 42L), 1024);
+    }
+
+    @Test
+    void scoresEqualTanimotoCalculate() {
+        for (List<IBitFingerprint> tmpFingerprints : List.of(FingerprintIndexTest.pubChemFingerprints,
+                FingerprintIndexTest.ecfps, FingerprintIndexTest.syntheticFingerprints)) {
+            FingerprintIndex tmpIndex = FingerprintIndexTest.createIndex(tmpFingerprints);
+            for (int tmpQuery = 0; tmpQuery < tmpFingerprints.size(); tmpQuery += 7) {
+                IBitFingerprint tmpQueryFingerprint = tmpFingerprints.get(tmpQuery);
+                List<SimilarityHit> tmpHits = tmpIndex.searchTopK(tmpQueryFingerprint, tmpFingerprints.size(), 0.0);
+                assertEquals(tmpFingerprints.size(), tmpHits.size());
+                for (SimilarityHit tmpHit : tmpHits) {
+                    assertEquals(Tanimoto.calculate(tmpQueryFingerprint, tmpFingerprints.get(tmpHit.getIndex())),
+                            tmpHit.getScore(), 0.0);
+                    assertEquals("id-" + tmpHit.getIndex(), tmpHit.getId());
+                }
+            }
+        }
+    }
+
+    @Test
+    void searchTopKEqualsBruteForce() {
+        List<IBitFingerprint> tmpFingerprints = FingerprintIndexTest.syntheticFingerprints;
+        FingerprintIndex tmpIndex = FingerprintIndexTest.createIndex(tmpFingerprints);
+        for (int tmpK : new int[] {1, 3, 10, 50}) {
+            for (double tmpThreshold : new double[] {0.0, 0.5, 0.8}) {
+                List<List<SimilarityHit>> tmpBatchHits = tmpIndex.searchTopK(tmpFingerprints, tmpK, tmpThreshold);
+                for (int tmpQuery = 0; tmpQuery < tmpFingerprints.size(); tmpQuery++) {
+                    List<SimilarityHit> tmpExpected = FingerprintIndexTest.searchBruteForce(tmpFingerprints,
+                            tmpFingerprints.get(tmpQuery), tmpThreshold);
+                    tmpExpected = tmpExpected.subList(0, Math.min(tmpK, tmpExpected.size()));
+                    FingerprintIndexTest.assertHitsEqual(tmpExpected,
+                            tmpIndex.searchTopK(tmpFingerprints.get(tmpQuery), tmpK, tmpThreshold));
+                    FingerprintIndexTest.assertHitsEqual(tmpExpected, tmpBatchHits.get(tmpQuery));
+                }
+            }
+        }
+    }
+
+    @Test
+    void searchThresholdEqualsBruteForce() {
+        List<IBitFingerprint> tmpFingerprints = FingerprintIndexTest.syntheticFingerprints;
+        FingerprintIndex tmpIndex = FingerprintIndexTest.createIndex(tmpFingerprints);
+        long tmpNeighborCount = 0;
+        for (double tmpThreshold : new double[] {0.3, 0.6, 0.9, 1.0}) {
+            List<List<SimilarityHit>> tmpBatchHits = tmpIndex.searchThreshold(tmpFingerprints, tmpThreshold);
+            for (int tmpQuery = 0; tmpQuery < tmpFingerprints.size(); tmpQuery++) {
+                List<SimilarityHit> tmpExpected = FingerprintIndexTest.searchBruteForce(tmpFingerprints,
+                        tmpFingerprints.get(tmpQuery), tmpThreshold);
+                FingerprintIndexTest.assertHitsEqual(tmpExpected,
+                        tmpIndex.searchThreshold(tmpFingerprints.get(tmpQuery), tmpThreshold));
+                FingerprintIndexTest.assertHitsEqual(tmpExpected, tmpBatchHits.get(tmpQuery));
+                tmpNeighborCount += tmpExpected.size() - 1;
+            }
+        }
+        //the corpus must exercise more than the self hits
+        assertTrue(tmpNeighborCount > tmpFingerprints.size());
+    }
+
+    private static FingerprintIndex createIndex(List<IBitFingerprint> aFingerprints) {
+        FingerprintIndex.Builder tmpBuilder = new FingerprintIndex.Builder();
+        for (int i = 0; i < aFingerprints.size(); i++) {
+            tmpBuilder.add("id-" + i, aFingerprints.get(i));
+        }
+        return tmpBuilder.build();
+    }
+
+    /**
+     * @return all fingerprints with a similarity of at least the threshold, ordered like the index results
+     */
+    private static List<SimilarityHit> searchBruteForce(List<IBitFingerprint> aFingerprints, IBitFingerprint aQuery,
+            double aThreshold) {
+        List<SimilarityHit> tmpHits = new ArrayList<>();
+        for (int i = 0; i < aFingerprints.size(); i++) {
+            double tmpScore = Tanimoto.calculate(aQuery, aFingerprints.get(i));
+            if (tmpScore >= aThreshold) {
+                tmpHits.add(new SimilarityHit(i, "id-" + i, tmpScore));
+            }
+        }
+        Collections.sort(tmpHits);
+        return tmpHits;
+    }
+
+    private static void assertHitsEqual(List<SimilarityHit> anExpected, List<SimilarityHit> anActual) {
+        assertEquals(anExpected.size(), anActual.size());
+        for (int i = 0; i < anExpected.size(); i++) {
+            assertEquals(anExpected.get(i).getIndex(), anActual.get(i).getIndex());
+            assertEquals(anExpected.get(i).getScore(), anActual.get(i).getScore(), 0.0);
+        }
+    }
+}
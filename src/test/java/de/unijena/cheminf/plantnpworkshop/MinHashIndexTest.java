@@ -0,0 +1,137 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the approximate searches of {@link MinHashIndex} against its exhaustive search and the parameters chosen by
+ * {@link MinHashIndex.Builder#forRecall(double, double, int)} against the recall measured on a fixed corpus.
+ */
+class MinHashIndexTest {
+    private static final double THRESHOLD = 0.7;
+
+    private static final double RECALL = 0.95;
+
+    private static final int MAX_HASH_COUNT = 128;
+
+    private static List<BitSet> bits;
+
+    private static List<int[]> features;
+
+    private static MinHashIndex index;
+
+    @BeforeAll
+    static void setUp() {
+        MinHashIndexTest.bits = SyntheticFingerprints.createFamilies(200, 10, 1 << 20, 80, 20, 7L);
+        MinHashIndexTest.features = SyntheticFingerprints.toFeatures(MinHashIndexTest.bits);
+        MinHashIndex.Builder tmpBuilder = MinHashIndex.Builder.forRecall(MinHashIndexTest.THRESHOLD,
+                MinHashIndexTest.RECALL, MinHashIndexTest.MAX_HASH_COUNT);
+        for (int i = 0; i < MinHashIndexTest.features.size(); i++) {
+            tmpBuilder.add("id-" + i, MinHashIndexTest.features.get(i));
+        }
+        MinHashIndexTest.index = tmpBuilder.build();
+    }
+
+    @Test
+    void getTanimotoEqualsJaccard() {
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < 100; j++) {
+                BitSet tmpIntersection = (BitSet) MinHashIndexTest.bits.get(i).clone();
+                tmpIntersection.and(MinHashIndexTest.bits.get(j));
+                BitSet tmpUnion = (BitSet) MinHashIndexTest.bits.get(i).clone();
+                tmpUnion.or(MinHashIndexTest.bits.get(j));
+                assertEquals((double) tmpIntersection.cardinality() / tmpUnion.cardinality(),
+                        MinHashIndex.getTanimoto(MinHashIndexTest.features.get(i), MinHashIndexTest.features.get(j)),
+                        0.0);
+            }
+        }
+    }
+
+    @Test
+    void forRecallRespectsHashBudgetAndTarget() {
+        MinHashIndex tmpIndex = MinHashIndexTest.index;
+        assertTrue(tmpIndex.getBandCount() * tmpIndex.getRowCount() <= MinHashIndexTest.MAX_HASH_COUNT);
+        assertTrue(tmpIndex.getCandidateProbability(MinHashIndexTest.THRESHOLD) >= MinHashIndexTest.RECALL);
+        //the budget allows several rows per band, which filters more dissimilar candidates than one row
+        assertTrue(tmpIndex.getRowCount() > 1);
+    }
+
+    @Test
+    void measuredRecallReachesTarget() {
+        List<List<SimilarityHit>> tmpApproximateHits = MinHashIndexTest.index.searchThreshold(
+                MinHashIndexTest.features, MinHashIndexTest.THRESHOLD);
+        List<List<SimilarityHit>> tmpExactHits = MinHashIndexTest.index.searchThresholdExhaustive(
+                MinHashIndexTest.features, MinHashIndexTest.THRESHOLD);
+        long tmpFound = 0;
+        long tmpTotal = 0;
+        for (int tmpQuery = 0; tmpQuery < MinHashIndexTest.features.size(); tmpQuery++) {
+            //approximate hits are exactly scored exhaustive hits
+            Set<Integer> tmpExactIndices = new HashSet<>();
+            for (SimilarityHit tmpHit : tmpExactHits.get(tmpQuery)) {
+                tmpExactIndices.add(tmpHit.getIndex());
+            }
+            for (SimilarityHit tmpHit : tmpApproximateHits.get(tmpQuery)) {
+                assertTrue(tmpExactIndices.contains(tmpHit.getIndex()));
+                assertEquals(MinHashIndex.getTanimoto(MinHashIndexTest.features.get(tmpQuery),
+                        MinHashIndexTest.features.get(tmpHit.getIndex())), tmpHit.getScore(), 0.0);
+            }
+            //the query itself is always found and would inflate the recall
+            tmpFound += tmpApproximateHits.get(tmpQuery).size() - 1;
+            tmpTotal += tmpExactHits.get(tmpQuery).size() - 1;
+        }
+        assertTrue(tmpTotal > 1000, "too few neighbours at the threshold: " + tmpTotal);
+        double tmpRecall = (double) tmpFound / tmpTotal;
+        assertTrue(tmpRecall >= MinHashIndexTest.RECALL - 0.02, "measured recall " + tmpRecall);
+        assertTrue(MinHashIndex.getRecall(tmpApproximateHits, tmpExactHits) >= tmpRecall);
+    }
+
+    @Test
+    void searchTopKReturnsBestApproximateHits() {
+        for (int tmpQuery = 0; tmpQuery < MinHashIndexTest.features.size(); tmpQuery += 3) {
+            List<SimilarityHit> tmpThresholdHits = MinHashIndexTest.index.searchThreshold(
+                    MinHashIndexTest.features.get(tmpQuery), MinHashIndexTest.THRESHOLD);
+            List<SimilarityHit> tmpTopKHits = MinHashIndexTest.index.searchTopK(
+                    MinHashIndexTest.features.get(tmpQuery), 3, MinHashIndexTest.THRESHOLD);
+            assertEquals(Math.min(3, tmpThresholdHits.size()), tmpTopKHits.size());
+            for (int i = 0; i < tmpTopKHits.size(); i++) {
+                assertEquals(tmpThresholdHits.get(i).getIndex(), tmpTopKHits.get(i).getIndex());
+                assertEquals(tmpThresholdHits.get(i).getScore(), tmpTopKHits.get(i).getScore(), 0.0);
+            }
+            //the query itself or an identical family member comes first
+            assertEquals(1.0, tmpTopKHits.get(0).getScore(), 0.0);
+        }
+    }
+}
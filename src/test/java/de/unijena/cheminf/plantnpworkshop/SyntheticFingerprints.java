@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Maria Sorokina, Aziz M. Yirik, Jonas Schaub, Christoph Steinbeck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package de.unijena.cheminf.plantnpworkshop;
+
+import org.openscience.cdk.fingerprint.BitSetFingerprint;
+import org.openscience.cdk.fingerprint.IBitFingerprint;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded corpora of fingerprints that form families of similar members, so searches and clusterings have many
+ * neighbours at the usual thresholds. Every family has a random base; its members drop some base bits and set the
+ * same number of other random bits. The members of all families are shuffled, so the insertion order does not follow
+ * the families.
+ */
+final class SyntheticFingerprints {
+    private SyntheticFingerprints() {
+    }
+
+    /**
+     * @param aFamilyCount number of families
+     * @param aFamilySize members per family
+     * @param aSize number of bits, i.e. the range of the set bits
+     * @param aBaseCardinality number of set bits of a family base
+     * @param aMaxChanges maximum number of base bits a member replaces
+     * @param aSeed seed of the random numbers
+     * @return the set bits of all members
+     */
+    static List<BitSet> createFamilies(int aFamilyCount, int aFamilySize, int aSize, int aBaseCardinality, int aMaxChanges,
+            long aSeed) {
+        Random tmpRandom = new Random(aSeed);
+        List<BitSet> tmpMembers = new ArrayList<>(aFamilyCount * aFamilySize);
+        for (int tmpFamily = 0; tmpFamily < aFamilyCount; tmpFamily++) {
+            BitSet tmpBase = SyntheticFingerprints.createRandomBits(tmpRandom, aSize, aBaseCardinality, new BitSet(aSize));
+            for (int tmpMember = 0; tmpMember < aFamilySize; tmpMember++) {
+                BitSet tmpBits = (BitSet) tmpBase.clone();
+                int tmpChanges = tmpRandom.nextInt(aMaxChanges + 1);
+                int[] tmpSetBits = tmpBase.stream().toArray();
+                for (int i = 0; i < tmpChanges; i++) {
+                    tmpBits.clear(tmpSetBits[tmpRandom.nextInt(tmpSetBits.length)]);
+                }
+                tmpBits.or(SyntheticFingerprints.createRandomBits(tmpRandom, aSize, tmpChanges, tmpBase));
+                tmpMembers.add(tmpBits);
+            }
+        }
+        Collections.shuffle(tmpMembers, tmpRandom);
+        return tmpMembers;
+    }
+
+    /**
+     * @return fingerprints of the given size with the given bits
+     */
+    static List<IBitFingerprint> toFingerprints(List<BitSet> aBits, int aSize) {
+        List<IBitFingerprint> tmpFingerprints = new ArrayList<>(aBits.size());
+        for (BitSet tmpBits : aBits) {
+            BitSetFingerprint tmpFingerprint = new BitSetFingerprint(aSize);
+            tmpBits.stream().forEach(aBit -> tmpFingerprint.set(aBit, true));
+            tmpFingerprints.add(tmpFingerprint);
+        }
+        return tmpFingerprints;
+    }
+
+    /**
+     * @return the set bits as sorted distinct features of a sparse fingerprint
+     */
+    static List<int[]> toFeatures(List<BitSet> aBits) {
+        List<int[]> tmpFeatures = new ArrayList<>(aBits.size());
+        for (BitSet tmpBits : aBits) {
+            tmpFeatures.add(tmpBits.stream().toArray());
+        }
+        return tmpFeatures;
+    }
+
+    /**
+     * Sets the given number of random bits that are not set in the excluded bits.
+     */
+    private static BitSet createRandomBits(Random aRandom, int aSize, int aCount, BitSet anExcluded) {
+        BitSet tmpBits = new BitSet(aSize);
+        while (tmpBits.cardinality() < aCount) {
+            int tmpBit = aRandom.nextInt(aSize);
+            if (!anExcluded.get(tmpBit)) {
+                tmpBits.set(tmpBit);
+            }
+        }
+        return tmpBits;
+    }
+}